@@ -0,0 +1,78 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transitive dependency queries. Sizes stop at 10000 since the closure
+ * index needs a bit per pair of plugins.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosureBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Param({"3"})
+    public double fanOut;
+
+    @Param({"0", "10"})
+    public int cycles;
+
+    private DependencyGraph graph;
+    private String[] names;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<PluginDescriptionFile> descriptions = new PluginGraphGenerator()
+                .size(size)
+                .fanOut(fanOut)
+                .cycles(cycles)
+                .generate();
+        graph = new DependencyGraph();
+        names = new String[descriptions.size()];
+        for (int i = 0; i < names.length; i++) {
+            graph.addPluginDescription(descriptions.get(i));
+            names[i] = descriptions.get(i).getName();
+        }
+    }
+
+    private String nextName() {
+        String result = names[next];
+        next = (next + 1) % names.length;
+        return result;
+    }
+
+    @Benchmark
+    public List<String> allDependencies() {
+        return graph.allDependencies(nextName());
+    }
+
+    @Benchmark
+    public List<String> getDependentPlugins() {
+        return graph.getDependentPlugins(nextName());
+    }
+
+    @Benchmark
+    public boolean dependsOn() {
+        return graph.dependsOn(nextName(), names[0]);
+    }
+}
@@ -0,0 +1,159 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Graph construction, mutation, ordering and rendering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int size;
+
+    @Param({"3"})
+    public double fanOut;
+
+    @Param({"0", "10"})
+    public int cycles;
+
+    private List<PluginDescriptionFile> descriptions;
+    private List<PluginDescriptor> descriptors;
+    private DependencyGraph graph;
+    private int next;
+
+    @Setup
+    public void setup() {
+        descriptions = new PluginGraphGenerator()
+                .size(size)
+                .fanOut(fanOut)
+                .cycles(cycles)
+                .generate();
+        descriptors = new ArrayList<PluginDescriptor>(descriptions.size());
+        for (PluginDescriptionFile description : descriptions) {
+            descriptors.add(PluginDescriptor.of(description));
+        }
+        graph = build();
+    }
+
+    private DependencyGraph build() {
+        DependencyGraph result = new DependencyGraph();
+        for (PluginDescriptionFile description : descriptions) {
+            result.addPluginDescription(description);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public DependencyGraph addPluginDescription() {
+        return build();
+    }
+
+    @Benchmark
+    public DependencyGraph bulkBuild() {
+        return new DependencyGraph(descriptors);
+    }
+
+    /**
+     * One disable and re-enable of a plugin, cycling through all of them.
+     */
+    @Benchmark
+    public boolean removePluginDescription() {
+        PluginDescriptionFile description = descriptions.get(next);
+        next = (next + 1) % descriptions.size();
+        return graph.removePluginDescription(description) & graph.addPluginDescription(description);
+    }
+
+    /**
+     * The same, asking for the enable order after each change.
+     */
+    @Benchmark
+    public List<String>[] reorder() {
+        PluginDescriptionFile description = descriptions.get(next);
+        next = (next + 1) % descriptions.size();
+        graph.removePluginDescription(description);
+        graph.addPluginDescription(description);
+        return graph.getEnableOrder();
+    }
+
+    @Benchmark
+    public List<String> getInitOrder() {
+        return graph.getInitOrder();
+    }
+
+    @Benchmark
+    public List<String>[] getEnableOrder() {
+        return graph.getEnableOrder();
+    }
+
+    @Benchmark
+    public long toDot() throws Exception {
+        CountingWriter out = new CountingWriter();
+        graph.writeDot(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long toSimpleDot() throws Exception {
+        CountingWriter out = new CountingWriter();
+        graph.writeSimpleDot(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long toCircularDot() throws Exception {
+        CountingWriter out = new CountingWriter();
+        graph.writeCircularDot(out);
+        return out.count;
+    }
+
+    /**
+     * Sink for rendering which doesn't measure the cost of keeping the output.
+     */
+    static final class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(int c) {
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * Generates synthetic plugin sets with a controllable shape.
+ *
+ * Plugins only depend, soft depend or load before plugins generated earlier,
+ * so the result is acyclic apart from the injected cycles, each of which
+ * adds a soft dependency from an early plugin back to a later one that
+ * already (transitively) reaches it.
+ */
+final class PluginGraphGenerator {
+
+    private int size = 1000;
+    private double fanOut = 3.0;
+    private double softDependRatio = 0.4;
+    private double loadBeforeRatio = 0.05;
+    private double postWorldRatio = 0.8;
+    private int cycles = 0;
+    private long seed = 0L;
+
+    PluginGraphGenerator size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Mean number of depend, softdepend and loadbefore entries per plugin.
+     */
+    PluginGraphGenerator fanOut(double fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    /**
+     * Fraction of references which are softdepend.
+     */
+    PluginGraphGenerator softDependRatio(double softDependRatio) {
+        this.softDependRatio = softDependRatio;
+        return this;
+    }
+
+    /**
+     * Fraction of references which are loadbefore.
+     */
+    PluginGraphGenerator loadBeforeRatio(double loadBeforeRatio) {
+        this.loadBeforeRatio = loadBeforeRatio;
+        return this;
+    }
+
+    /**
+     * Fraction of plugins with load: POSTWORLD, the rest are STARTUP.
+     */
+    PluginGraphGenerator postWorldRatio(double postWorldRatio) {
+        this.postWorldRatio = postWorldRatio;
+        return this;
+    }
+
+    PluginGraphGenerator cycles(int cycles) {
+        this.cycles = cycles;
+        return this;
+    }
+
+    PluginGraphGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    List<PluginDescriptionFile> generate() {
+        Random random = new Random(seed);
+        List<List<String>> depend = new ArrayList<List<String>>(size);
+        List<List<String>> softDepend = new ArrayList<List<String>>(size);
+        List<List<String>> loadBefore = new ArrayList<List<String>>(size);
+        for (int i = 0; i < size; i++) {
+            depend.add(new ArrayList<String>());
+            softDepend.add(new ArrayList<String>());
+            loadBefore.add(new ArrayList<String>());
+            if (i == 0) {
+                continue;
+            }
+            // Poisson-ish fan out with the requested mean.
+            int refs = (int) fanOut;
+            if (random.nextDouble() < fanOut - refs) {
+                refs++;
+            }
+            for (int j = 0; j < refs; j++) {
+                // Favour recently generated plugins so chains get long.
+                int target = i - 1 - (int) (Math.abs(random.nextGaussian()) * Math.sqrt(i)) % i;
+                double kind = random.nextDouble();
+                if (kind < loadBeforeRatio) {
+                    loadBefore.get(i).add(name(target));
+                } else if (kind < loadBeforeRatio + softDependRatio) {
+                    softDepend.get(i).add(name(target));
+                } else {
+                    depend.get(i).add(name(target));
+                }
+            }
+        }
+        for (int c = 0; c < cycles && size > 1; c++) {
+            int late = 1 + random.nextInt(size - 1);
+            List<String> refs = depend.get(late).isEmpty() ? softDepend.get(late) : depend.get(late);
+            if (refs.isEmpty()) {
+                // Give it something to close the loop with.
+                int early = random.nextInt(late);
+                depend.get(late).add(name(early));
+                softDepend.get(early).add(name(late));
+            } else {
+                String early = refs.get(random.nextInt(refs.size()));
+                softDepend.get(Integer.parseInt(early.substring(1))).add(name(late));
+            }
+        }
+        List<PluginDescriptionFile> result = new ArrayList<PluginDescriptionFile>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder yaml = new StringBuilder();
+            yaml.append("name: ").append(name(i)).append('\n');
+            yaml.append("version: '1.0'\n");
+            yaml.append("main: bench.").append(name(i)).append('\n');
+            yaml.append("load: ").append(random.nextDouble() < postWorldRatio ? "POSTWORLD" : "STARTUP").append('\n');
+            appendList(yaml, "depend", depend.get(i));
+            appendList(yaml, "softdepend", softDepend.get(i));
+            appendList(yaml, "loadbefore", loadBefore.get(i));
+            try {
+                result.add(new PluginDescriptionFile(new StringReader(yaml.toString())));
+            } catch (InvalidDescriptionException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return result;
+    }
+
+    static String name(int i) {
+        return "P" + i;
+    }
+
+    private static void appendList(StringBuilder yaml, String key, List<String> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        yaml.append(key).append(": [");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                yaml.append(", ");
+            }
+            yaml.append(values.get(i));
+        }
+        yaml.append("]\n");
+    }
+}
@@ -0,0 +1,330 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+
+/**
+ * Int indexed backing store for {@link DependencyGraph}.
+ *
+ * Nodes are given dense ids, ids of removed nodes are reused. Each node has a
+ * primitive array of child ids and parent ids with a parallel array of edge
+ * type bitmasks, one entry per neighbour however many types connect them. A
+ * compressed sparse row copy of the whole graph is built on demand for the
+ * algorithms which want flat edge arrays. Snapshots take frozen copies which
+ * share the per node arrays, see {@link #freeze()}.
+ */
+final class AdjacencyStore {
+
+    private static final int[] NO_IDS = new int[0];
+    private static final byte[] NO_TYPES = new byte[0];
+
+    private DependencyGraph.Node[] nodes;
+    private int[][] childIds;
+    private byte[][] childTypes;
+    private int[] childCount;
+    private int[][] parentIds;
+    private byte[][] parentTypes;
+    private int[] parentCount;
+    // Generation each node's arrays were made in, those from an earlier
+    // generation may be shared with a frozen copy and are copied before
+    // they are changed.
+    private int[] owner;
+    private int generation;
+    private int[] free = new int[4];
+    private int freeCount;
+    private int capacity;
+    private int edgeCount;
+    private Csr csr;
+
+    AdjacencyStore() {
+        nodes = new DependencyGraph.Node[16];
+        childIds = new int[16][];
+        childTypes = new byte[16][];
+        childCount = new int[16];
+        parentIds = new int[16][];
+        parentTypes = new byte[16][];
+        parentCount = new int[16];
+        owner = new int[16];
+    }
+
+    private AdjacencyStore(AdjacencyStore other) {
+        nodes = Arrays.copyOf(other.nodes, other.capacity);
+        childIds = Arrays.copyOf(other.childIds, other.capacity);
+        childTypes = Arrays.copyOf(other.childTypes, other.capacity);
+        childCount = Arrays.copyOf(other.childCount, other.capacity);
+        parentIds = Arrays.copyOf(other.parentIds, other.capacity);
+        parentTypes = Arrays.copyOf(other.parentTypes, other.capacity);
+        parentCount = Arrays.copyOf(other.parentCount, other.capacity);
+        capacity = other.capacity;
+        edgeCount = other.edgeCount;
+        csr = other.csr;
+    }
+
+    /**
+     * Read only copy of the store as it is now, for a snapshot. Only the
+     * arrays indexed by node id are copied, the arrays of each node's edges
+     * are shared until this store next changes them.
+     */
+    AdjacencyStore freeze() {
+        AdjacencyStore result = new AdjacencyStore(this);
+        generation++;
+        return result;
+    }
+
+    /**
+     * Assign the node an id and add it with no edges.
+     */
+    int add(DependencyGraph.Node node) {
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            id = capacity++;
+            if (id == nodes.length) {
+                resize(id * 2);
+            }
+        }
+        nodes[id] = node;
+        childIds[id] = NO_IDS;
+        childTypes[id] = NO_TYPES;
+        parentIds[id] = NO_IDS;
+        parentTypes[id] = NO_TYPES;
+        owner[id] = generation;
+        node.setId(id);
+        csr = null;
+        return id;
+    }
+
+    /**
+     * Make room for ids up to nodes without growing again.
+     */
+    void ensureCapacity(int nodes) {
+        if (nodes > this.nodes.length) {
+            resize(nodes);
+        }
+    }
+
+    /**
+     * Make room for a node's edges without growing its arrays again.
+     */
+    void reserve(int id, int children, int parents) {
+        own(id);
+        if (childIds[id].length < children) {
+            childIds[id] = Arrays.copyOf(childIds[id], children);
+            childTypes[id] = Arrays.copyOf(childTypes[id], children);
+        }
+        if (parentIds[id].length < parents) {
+            parentIds[id] = Arrays.copyOf(parentIds[id], parents);
+            parentTypes[id] = Arrays.copyOf(parentTypes[id], parents);
+        }
+    }
+
+    /**
+     * Remove a node, which must no longer have any edges.
+     */
+    void remove(int id) {
+        if (childCount[id] != 0 || parentCount[id] != 0) {
+            throw new IllegalStateException(nodes[id].getName() + " still has edges");
+        }
+        nodes[id] = null;
+        childIds[id] = null;
+        childTypes[id] = null;
+        parentIds[id] = null;
+        parentTypes[id] = null;
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = id;
+        csr = null;
+    }
+
+    /**
+     * Add the types in mask to the edge from a node to a child.
+     */
+    void addEdge(int from, int to, byte mask) {
+        own(from);
+        own(to);
+        int i = indexOf(childIds[from], childCount[from], to);
+        if (i >= 0) {
+            childTypes[from][i] |= mask;
+            parentTypes[to][indexOf(parentIds[to], parentCount[to], from)] |= mask;
+            csr = null;
+            return;
+        }
+        childCount[from] = append(childIds, childTypes, childCount[from], from, to, mask);
+        parentCount[to] = append(parentIds, parentTypes, parentCount[to], to, from, mask);
+        edgeCount++;
+        csr = null;
+    }
+
+    /**
+     * Remove the edge from a node to a child, whatever its types.
+     */
+    boolean removeEdge(int from, int to) {
+        int i = indexOf(childIds[from], childCount[from], to);
+        if (i < 0) {
+            return false;
+        }
+        own(from);
+        own(to);
+        childCount[from] = removeAt(childIds[from], childTypes[from], childCount[from], i);
+        parentCount[to] = removeAt(parentIds[to], parentTypes[to], parentCount[to], indexOf(parentIds[to], parentCount[to], from));
+        edgeCount--;
+        csr = null;
+        return true;
+    }
+
+    private void resize(int size) {
+        nodes = Arrays.copyOf(nodes, size);
+        childIds = Arrays.copyOf(childIds, size);
+        childTypes = Arrays.copyOf(childTypes, size);
+        childCount = Arrays.copyOf(childCount, size);
+        parentIds = Arrays.copyOf(parentIds, size);
+        parentTypes = Arrays.copyOf(parentTypes, size);
+        parentCount = Arrays.copyOf(parentCount, size);
+        owner = Arrays.copyOf(owner, size);
+    }
+
+    /**
+     * Copy a node's arrays if a frozen copy may share them.
+     */
+    private void own(int id) {
+        if (owner[id] != generation) {
+            childIds[id] = childIds[id].clone();
+            childTypes[id] = childTypes[id].clone();
+            parentIds[id] = parentIds[id].clone();
+            parentTypes[id] = parentTypes[id].clone();
+            owner[id] = generation;
+        }
+    }
+
+    byte getEdge(int from, int to) {
+        int i = indexOf(childIds[from], childCount[from], to);
+        return i < 0 ? 0 : childTypes[from][i];
+    }
+
+    /**
+     * Upper bound on node ids, some ids below it may be unused.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    DependencyGraph.Node getNode(int id) {
+        return nodes[id];
+    }
+
+    // The arrays returned below are live and only valid up to the count.
+
+    int getChildCount(int id) {
+        return childCount[id];
+    }
+
+    int[] getChildIds(int id) {
+        return childIds[id];
+    }
+
+    byte[] getChildTypes(int id) {
+        return childTypes[id];
+    }
+
+    int getParentCount(int id) {
+        return parentCount[id];
+    }
+
+    int[] getParentIds(int id) {
+        return parentIds[id];
+    }
+
+    byte[] getParentTypes(int id) {
+        return parentTypes[id];
+    }
+
+    /**
+     * Flat copy of the graph, cached until the next modification. Csr is
+     * immutable, so threads sharing a store which no longer changes can race
+     * to build it.
+     */
+    Csr getCsr() {
+        if (csr == null) {
+            csr = new Csr(this);
+        }
+        return csr;
+    }
+
+    // Searches from the end, where the most recently added edges are.
+    private static int indexOf(int[] ids, int count, int id) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int append(int[][] ids, byte[][] types, int count, int node, int id, byte mask) {
+        if (count == ids[node].length) {
+            int size = count == 0 ? 2 : count * 2;
+            ids[node] = Arrays.copyOf(ids[node], size);
+            types[node] = Arrays.copyOf(types[node], size);
+        }
+        ids[node][count] = id;
+        types[node][count] = mask;
+        return count + 1;
+    }
+
+    private static int removeAt(int[] ids, byte[] types, int count, int i) {
+        count--;
+        ids[i] = ids[count];
+        types[i] = types[count];
+        return count;
+    }
+
+    /**
+     * Compressed sparse row form of the graph. Edges are numbered in order of
+     * their source node, so the edges out of node n are outStart[n] up to
+     * outStart[n + 1]; inEdge lists edge numbers grouped by target node in
+     * the same way using inStart.
+     */
+    static final class Csr {
+        final int nodeCount;
+        final int edgeCount;
+        final int[] from;
+        final int[] to;
+        final byte[] types;
+        final int[] outStart;
+        final int[] inStart;
+        final int[] inEdge;
+
+        private Csr(AdjacencyStore store) {
+            nodeCount = store.capacity;
+            edgeCount = store.edgeCount;
+            from = new int[edgeCount];
+            to = new int[edgeCount];
+            types = new byte[edgeCount];
+            outStart = new int[nodeCount + 1];
+            inStart = new int[nodeCount + 1];
+            inEdge = new int[edgeCount];
+            int e = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                outStart[n] = e;
+                inStart[n + 1] = inStart[n] + store.parentCount[n];
+                int[] ids = store.childIds[n];
+                byte[] masks = store.childTypes[n];
+                for (int i = 0; i < store.childCount[n]; i++) {
+                    from[e] = n;
+                    to[e] = ids[i];
+                    types[e++] = masks[i];
+                }
+            }
+            outStart[nodeCount] = e;
+            int[] inPos = Arrays.copyOf(inStart, nodeCount);
+            for (e = 0; e < edgeCount; e++) {
+                inEdge[inPos[to[e]]++] = e;
+            }
+        }
+    }
+}
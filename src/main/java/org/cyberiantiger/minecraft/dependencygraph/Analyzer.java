@@ -0,0 +1,244 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginDescriptionFile;
+
+/**
+ * Builds the dependency graph from plugin jars on disk, without a server.
+ *
+ * <pre>
+ * java -cp bukkit.jar:DependencyGraph.jar org.cyberiantiger.minecraft.dependencygraph.Analyzer \
+ *     [-o output-dir] [-c cache-file] [-j threads] [-s] plugins-dir...
+ * </pre>
+ *
+ * Writes the same files as the plugin does into the output directory, which
+ * defaults to the current directory. Descriptors are cached between runs in
+ * descriptors.cache in the output directory unless another file is given.
+ * With -s the jars' classes are also scanned for references to other plugins
+ * which are not declared, cached in classes.cache in the output directory.
+ * The graph is also written to plugins.snapshot, to compare with another
+ * run using {@link SnapshotDiff}.
+ */
+public final class Analyzer {
+
+    // Jars per fork join leaf task.
+    private static final int BATCH = 8;
+
+    private Analyzer() {
+    }
+
+    public static void main(String[] args) {
+        File output = new File(".");
+        File cacheFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean scanClasses = false;
+        List<File> directories = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if ("-c".equals(args[i]) && i + 1 < args.length) {
+                cacheFile = new File(args[++i]);
+            } else if ("-j".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("-s".equals(args[i])) {
+                scanClasses = true;
+            } else {
+                directories.add(new File(args[i]));
+            }
+        }
+        if (directories.isEmpty()) {
+            System.err.println("Usage: Analyzer [-o output-dir] [-c cache-file] [-j threads] [-s] plugins-dir...");
+            System.exit(1);
+        }
+        output.mkdirs();
+        if (cacheFile == null) {
+            cacheFile = new File(output, "descriptors.cache");
+        }
+        DescriptorCache cache = DescriptorCache.open(cacheFile);
+        List<File> jarList = findJars(directories);
+        File[] jars = jarList.toArray(new File[jarList.size()]);
+        PluginDescriptor[] descriptions = new PluginDescriptor[jars.length];
+        String[] errors = new String[jars.length];
+        ClassScanCache classCache = scanClasses ? ClassScanCache.open(new File(output, "classes.cache")) : null;
+        ClassScanner.Packages[] packages = new ClassScanner.Packages[jars.length];
+        String[] scanErrors = new String[jars.length];
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new ScanTask(jars, cache, descriptions, errors, 0, jars.length));
+            if (classCache != null) {
+                pool.invoke(new ClassScanner.JarTask(jars, classCache, packages, scanErrors, 0, jars.length));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.err.println(cache.getStatistics());
+        try {
+            cache.save();
+        } catch (IOException ex) {
+            System.err.println("Failed to write descriptor cache: " + ex.getMessage());
+        }
+        List<PluginDescriptor> selected = select(jars, descriptions, errors, "");
+        if (classCache != null) {
+            System.err.println(classCache.getStatistics());
+            try {
+                classCache.save();
+            } catch (IOException ex) {
+                System.err.println("Failed to write class scan cache: " + ex.getMessage());
+            }
+            selected = ClassScanner.infer(selected, byPlugin(jars, descriptions, errors, packages, scanErrors));
+        }
+        DependencyGraph graph = new DependencyGraph(selected);
+        try {
+            GraphWriter.writeGraphs(output, graph, null);
+            GraphFile.of(graph, System.currentTimeMillis()).write(new File(output, "plugins.snapshot"));
+        } catch (IOException ex) {
+            System.err.println("Failed to write dependency graph: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static List<File> findJars(List<File> directories) {
+        List<File> result = new ArrayList<File>();
+        for (File directory : directories) {
+            File[] files = directory.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(".jar");
+                }
+            });
+            if (files == null) {
+                System.err.println("Not a directory: " + directory);
+                continue;
+            }
+            // Directory listing order is arbitrary, keep output stable.
+            Arrays.sort(files);
+            result.addAll(Arrays.asList(files));
+        }
+        return result;
+    }
+
+    /**
+     * The descriptors which were read, warning on stderr about the jars which
+     * failed and about duplicate plugin names, where the first jar wins like
+     * it does on a server.
+     */
+    static List<PluginDescriptor> select(File[] jars, PluginDescriptor[] descriptions, String[] errors, String prefix) {
+        List<PluginDescriptor> found = new ArrayList<PluginDescriptor>(jars.length);
+        Map<String,File> seen = new HashMap<String,File>();
+        for (int i = 0; i < jars.length; i++) {
+            if (errors[i] != null) {
+                System.err.println(prefix + "Skipping " + jars[i] + ": " + errors[i]);
+                continue;
+            }
+            String name = descriptions[i].getName();
+            if (seen.containsKey(name)) {
+                System.err.println(prefix + "Ambiguous plugin name " + name + " in " + seen.get(name) + " and " + jars[i]);
+                continue;
+            }
+            seen.put(name, jars[i]);
+            found.add(descriptions[i]);
+        }
+        return found;
+    }
+
+    /**
+     * Class scan results by plugin name, taking the first jar for a name like
+     * {@link #select} does and warning about the jars which failed.
+     */
+    private static Map<String,ClassScanner.Packages> byPlugin(File[] jars, PluginDescriptor[] descriptions, String[] errors,
+            ClassScanner.Packages[] packages, String[] scanErrors) {
+        Map<String,ClassScanner.Packages> result = new HashMap<String,ClassScanner.Packages>();
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < jars.length; i++) {
+            if (errors[i] != null || !seen.add(descriptions[i].getName())) {
+                continue;
+            }
+            if (scanErrors[i] != null) {
+                System.err.println("Not scanning classes of " + jars[i] + ": " + scanErrors[i]);
+                continue;
+            }
+            result.put(descriptions[i].getName(), packages[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Read plugin.yml from a jar, only that entry is read.
+     */
+    static PluginDescriptionFile readDescription(File jar) throws IOException, InvalidDescriptionException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            ZipEntry entry = zip.getEntry("plugin.yml");
+            if (entry == null) {
+                throw new InvalidDescriptionException("Jar does not contain plugin.yml");
+            }
+            InputStream in = zip.getInputStream(entry);
+            try {
+                return new PluginDescriptionFile(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Reads the descriptors of a range of jars into the matching slots of
+     * descriptions, or the reason it failed into errors.
+     */
+    @SuppressWarnings("serial")
+    static final class ScanTask extends RecursiveAction {
+        private final File[] jars;
+        private final DescriptorCache cache;
+        private final PluginDescriptor[] descriptions;
+        private final String[] errors;
+        private final int start;
+        private final int end;
+
+        ScanTask(File[] jars, DescriptorCache cache, PluginDescriptor[] descriptions, String[] errors, int start, int end) {
+            this.jars = jars;
+            this.cache = cache;
+            this.descriptions = descriptions;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > BATCH) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new ScanTask(jars, cache, descriptions, errors, start, mid), new ScanTask(jars, cache, descriptions, errors, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                try {
+                    descriptions[i] = cache.get(jars[i]);
+                } catch (IOException ex) {
+                    errors[i] = ex.toString();
+                } catch (InvalidDescriptionException ex) {
+                    errors[i] = ex.getMessage();
+                } catch (RuntimeException ex) {
+                    // Malformed yaml surfaces as all sorts of runtime exceptions.
+                    errors[i] = ex.toString();
+                }
+            }
+        }
+    }
+}
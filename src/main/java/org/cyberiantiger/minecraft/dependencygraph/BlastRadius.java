@@ -0,0 +1,37 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Map;
+
+/**
+ * What failing to enable each plugin takes down with it through hard
+ * dependencies, since Bukkit will not enable a plugin any of whose depend
+ * entries is missing.
+ */
+final class BlastRadius {
+
+    private final Map<String,Integer> radius;
+    private final Map<String,Integer> critical;
+
+    BlastRadius(Map<String,Integer> radius, Map<String,Integer> critical) {
+        this.radius = radius;
+        this.critical = critical;
+    }
+
+    /**
+     * The number of plugins each plugin failing disables, counting itself,
+     * largest first.
+     */
+    public Map<String,Integer> getRadius() {
+        return radius;
+    }
+
+    /**
+     * Plugins picked greedily so each disables the most not already disabled
+     * by those before it, with how many more that is. Stops once every pick
+     * would only disable itself, so together they are the few plugins worth
+     * watching most closely.
+     */
+    public Map<String,Integer> getCritical() {
+        return critical;
+    }
+}
@@ -0,0 +1,178 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On disk cache of {@link ClassScanner} results, keyed by the content hash of
+ * the jar, so a jar which moved or was copied between servers is not scanned
+ * again. Safe to use from several threads at once.
+ *
+ * The file has the same layout as the {@link DescriptorCache}: a header, the
+ * entries and a checksum, read onto the heap and replaced whole.
+ */
+final class ClassScanCache {
+
+    private static final int MAGIC = 0x44474353; // DGCS
+    private static final int VERSION = 1;
+    private static final int HEADER = 12;
+    private static final int TRAILER = 8;
+
+    private final File file;
+    private final Map<Long,ClassScanner.Packages> loaded;
+    private final ConcurrentMap<Long,ClassScanner.Packages> used = new ConcurrentHashMap<Long,ClassScanner.Packages>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final String loadError;
+
+    private ClassScanCache(File file, Map<Long,ClassScanner.Packages> loaded, String loadError) {
+        this.file = file;
+        this.loaded = loaded;
+        this.loadError = loadError;
+    }
+
+    /**
+     * Open a cache, a missing or invalid file gives an empty cache.
+     */
+    static ClassScanCache open(File file) {
+        if (!file.isFile()) {
+            return new ClassScanCache(file, Collections.<Long,ClassScanner.Packages>emptyMap(), null);
+        }
+        try {
+            return new ClassScanCache(file, read(file), null);
+        } catch (IOException ex) {
+            return new ClassScanCache(file, Collections.<Long,ClassScanner.Packages>emptyMap(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Scan results for a jar, from the cache if a jar with the same content
+     * was scanned before. Must be called from a fork join pool.
+     */
+    ClassScanner.Packages get(File jar) throws IOException {
+        Long hash = DescriptorCache.hash(jar);
+        ClassScanner.Packages packages = loaded.get(hash);
+        if (packages == null) {
+            packages = used.get(hash);
+        }
+        if (packages != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            packages = ClassScanner.scan(jar);
+        }
+        used.put(hash, packages);
+        return packages;
+    }
+
+    /**
+     * Write out the entries used since the cache was opened.
+     */
+    void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + used.size() * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Map.Entry<Long,ClassScanner.Packages>> entries = new ArrayList<Map.Entry<Long,ClassScanner.Packages>>(used.entrySet());
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<Long,ClassScanner.Packages> e : entries) {
+            ClassScanner.Packages packages = e.getValue();
+            out.writeLong(e.getKey());
+            out.writeInt(packages.getDefined().size());
+            for (Map.Entry<String,String> defined : packages.getDefined().entrySet()) {
+                DescriptorCache.writeString(out, defined.getKey());
+                DescriptorCache.writeString(out, defined.getValue());
+            }
+            DescriptorCache.writeStrings(out, new ArrayList<String>(packages.getReferenced()));
+        }
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        out.writeLong(DescriptorCache.hash(ByteBuffer.wrap(data), 0L));
+        out.flush();
+        data = bytes.toByteArray();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream fileOut = new FileOutputStream(tmp);
+            try {
+                fileOut.write(data);
+            } finally {
+                fileOut.close();
+            }
+            GraphWriter.replace(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    String getStatistics() {
+        StringBuilder result = new StringBuilder();
+        result.append("Class scan cache: ");
+        result.append(hits.get()).append(" hits, ");
+        result.append(misses.get()).append(" misses");
+        if (loadError != null) {
+            result.append(", discarded invalid cache file (").append(loadError).append(')');
+        }
+        return result.toString();
+    }
+
+    private static Map<Long,ClassScanner.Packages> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER + TRAILER || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad cache file length " + length);
+            }
+            ByteBuffer buffer = DescriptorCache.readFully(channel, (int) length);
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) length - TRAILER);
+            if (DescriptorCache.hash(body, 0L) != buffer.getLong((int) length - TRAILER)) {
+                throw new IOException("Cache file checksum mismatch");
+            }
+            buffer.limit((int) length - TRAILER);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown cache file format");
+            }
+            int count = buffer.getInt();
+            Map<Long,ClassScanner.Packages> result = new HashMap<Long,ClassScanner.Packages>(Math.max(16, count * 2));
+            try {
+                for (int i = 0; i < count; i++) {
+                    long hash = buffer.getLong();
+                    int definedCount = buffer.getInt();
+                    if (definedCount < 0 || definedCount > buffer.remaining() / 8) {
+                        throw new IOException("Bad package count " + definedCount);
+                    }
+                    Map<String,String> defined = new HashMap<String,String>(Math.max(16, definedCount * 2));
+                    for (int j = 0; j < definedCount; j++) {
+                        String name = DescriptorCache.readString(buffer);
+                        defined.put(name, DescriptorCache.readString(buffer));
+                    }
+                    List<String> referenced = DescriptorCache.readStrings(buffer);
+                    result.put(hash, new ClassScanner.Packages(defined, new HashSet<String>(referenced)));
+                }
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("Truncated cache file", ex);
+            }
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+}
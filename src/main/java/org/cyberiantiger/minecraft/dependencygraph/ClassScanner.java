@@ -0,0 +1,542 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Finds the packages the classes in a plugin jar define and refer to, so
+ * plugins which use each other's classes without declaring it can be given
+ * an {@link EdgeType#INFERRED} edge.
+ *
+ * Jars are memory mapped and their zip directory read in place. Each class
+ * has its constant pool parsed, then its fields, methods and attributes
+ * skipped through for the descriptors and generic signatures they name.
+ * Those, the descriptors of member references and method types, and the
+ * class entries name everything the class uses, down to the types of its
+ * own fields and methods. Other strings are left alone, however much they
+ * look like a descriptor. Jars, and the classes of a big jar, are scanned in
+ * parallel on a fork join pool.
+ */
+final class ClassScanner {
+
+    // Classes per fork join leaf task.
+    private static final int BATCH = 128;
+    // Bytes inflated at a time.
+    private static final int STEP = 8192;
+
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_LENGTH = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private ClassScanner() {
+    }
+
+    /**
+     * What a jar's classes define and use, packages in internal form.
+     */
+    static final class Packages {
+        // Package to one class in it, for checking whether we can see it ourselves.
+        private final Map<String,String> defined;
+        private final Set<String> referenced;
+
+        Packages(Map<String,String> defined, Set<String> referenced) {
+            this.defined = Collections.unmodifiableMap(new TreeMap<String,String>(defined));
+            this.referenced = Collections.unmodifiableSet(new TreeSet<String>(referenced));
+        }
+
+        Map<String,String> getDefined() {
+            return defined;
+        }
+
+        Set<String> getReferenced() {
+            return referenced;
+        }
+    }
+
+    /**
+     * The descriptors with the plugins each refers to but does not depend or
+     * softdepend on, by the plugin which defines each package it uses.
+     * Packages several plugins define, or which are on our own class path
+     * like the server's libraries, belong to no one.
+     *
+     * @param descriptors the plugins
+     * @param packages scan results by plugin name, plugins without one infer nothing
+     */
+    static List<PluginDescriptor> infer(List<PluginDescriptor> descriptors, Map<String,Packages> packages) {
+        Map<String,String> owners = new HashMap<String,String>();
+        Set<String> shared = new HashSet<String>();
+        ClassLoader loader = ClassScanner.class.getClassLoader();
+        for (PluginDescriptor descriptor : descriptors) {
+            Packages scanned = packages.get(descriptor.getName());
+            if (scanned == null) continue;
+            for (Map.Entry<String,String> e : scanned.getDefined().entrySet()) {
+                String owner = owners.put(e.getKey(), descriptor.getName());
+                if (owner != null || loader.getResource(e.getValue() + ".class") != null) {
+                    shared.add(e.getKey());
+                }
+            }
+        }
+        owners.keySet().removeAll(shared);
+        List<PluginDescriptor> result = new ArrayList<PluginDescriptor>(descriptors.size());
+        for (PluginDescriptor descriptor : descriptors) {
+            Packages scanned = packages.get(descriptor.getName());
+            if (scanned == null) {
+                result.add(descriptor);
+                continue;
+            }
+            Set<String> inferred = new TreeSet<String>();
+            for (String reference : scanned.getReferenced()) {
+                String owner = owners.get(reference);
+                if (owner != null) {
+                    inferred.add(owner);
+                }
+            }
+            inferred.remove(descriptor.getName());
+            inferred.removeAll(descriptor.getDepend());
+            inferred.removeAll(descriptor.getSoftDepend());
+            result.add(inferred.isEmpty() ? descriptor : descriptor.withInferred(new ArrayList<String>(inferred)));
+        }
+        return result;
+    }
+
+    /**
+     * Scan one jar, forking a task per batch of classes, so it must be called
+     * from a fork join pool.
+     */
+    static Packages scan(File jar) throws IOException {
+        ByteBuffer zip = map(jar);
+        List<long[]> entries = readDirectory(zip);
+        return new ClassTask(zip, entries, 0, entries.size()).invoke();
+    }
+
+    private static ByteBuffer map(File jar) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(jar, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Jar too big to map: " + length);
+            }
+            // The mapping outlives the file being closed.
+            ByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            result.order(ByteOrder.LITTLE_ENDIAN);
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Class entries of a zip as { data offset, method, compressed size,
+     * uncompressed size }, read from the central directory.
+     */
+    private static List<long[]> readDirectory(ByteBuffer zip) throws IOException {
+        int end = -1;
+        // The end record is followed by a comment of at most 64k.
+        for (int i = zip.limit() - END_LENGTH; i >= Math.max(0, zip.limit() - END_LENGTH - 0xffff); i--) {
+            if (zip.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new IOException("Not a zip file");
+        }
+        int count = zip.getShort(end + 10) & 0xffff;
+        long offset = zip.getInt(end + 16) & 0xffffffffL;
+        if (count == 0xffff || offset == 0xffffffffL) {
+            throw new IOException("Zip64 jars are not supported");
+        }
+        List<long[]> result = new ArrayList<long[]>(count);
+        int pos = (int) offset;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (zip.getInt(pos) != CENTRAL_HEADER) {
+                    throw new IOException("Bad zip directory entry " + i);
+                }
+                int method = zip.getShort(pos + 10) & 0xffff;
+                long compressed = zip.getInt(pos + 20) & 0xffffffffL;
+                long size = zip.getInt(pos + 24) & 0xffffffffL;
+                int nameLength = zip.getShort(pos + 28) & 0xffff;
+                int extraLength = zip.getShort(pos + 30) & 0xffff;
+                int commentLength = zip.getShort(pos + 32) & 0xffff;
+                int local = zip.getInt(pos + 42);
+                if (nameLength > 6 && (method == STORED || method == DEFLATED) && isClass(zip, pos + 46, nameLength)) {
+                    if (zip.getInt(local) != LOCAL_HEADER) {
+                        throw new IOException("Bad zip entry header " + i);
+                    }
+                    long data = local + 30L + (zip.getShort(local + 26) & 0xffff) + (zip.getShort(local + 28) & 0xffff);
+                    if (data + compressed > zip.limit()) {
+                        throw new IOException("Truncated zip entry " + i);
+                    }
+                    result.add(new long[] { data, method, compressed, size });
+                }
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+        } catch (IndexOutOfBoundsException ex) {
+            throw new IOException("Truncated zip directory", ex);
+        }
+        return result;
+    }
+
+    private static boolean isClass(ByteBuffer zip, int name, int length) {
+        int end = name + length;
+        return zip.get(end - 6) == '.' && zip.get(end - 5) == 'c' && zip.get(end - 4) == 'l'
+                && zip.get(end - 3) == 'a' && zip.get(end - 2) == 's' && zip.get(end - 1) == 's';
+    }
+
+    /**
+     * Scans a range of a jar's classes, splitting it while it is big.
+     */
+    @SuppressWarnings("serial")
+    private static final class ClassTask extends RecursiveTask<Packages> {
+        private final ByteBuffer zip;
+        private final List<long[]> entries;
+        private final int start;
+        private final int end;
+        // Scratch, for a leaf only.
+        private Map<String,String> defined;
+        private Set<String> referenced;
+        private byte[] input;
+        private byte[] data;
+        private int limit;
+        private Inflater inflater;
+
+        ClassTask(ByteBuffer zip, List<long[]> entries, int start, int end) {
+            this.zip = zip;
+            this.entries = entries;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Packages compute() {
+            if (end - start > BATCH) {
+                int mid = (start + end) >>> 1;
+                ClassTask right = new ClassTask(zip, entries, mid, end);
+                right.fork();
+                Packages left = new ClassTask(zip, entries, start, mid).compute();
+                Packages other = right.join();
+                Map<String,String> allDefined = new HashMap<String,String>(other.getDefined());
+                allDefined.putAll(left.getDefined());
+                Set<String> allReferenced = new HashSet<String>(left.getReferenced());
+                allReferenced.addAll(other.getReferenced());
+                allReferenced.removeAll(allDefined.keySet());
+                return new Packages(allDefined, allReferenced);
+            }
+            ByteBuffer buffer = zip.duplicate();
+            defined = new HashMap<String,String>();
+            referenced = new HashSet<String>();
+            input = new byte[8192];
+            data = new byte[8192];
+            inflater = new Inflater(true);
+            try {
+                for (int i = start; i < end; i++) {
+                    long[] entry = entries.get(i);
+                    try {
+                        read(buffer, entry);
+                    } catch (IOException ex) {
+                        // A class we can not read uses nothing we can tell.
+                    } catch (DataFormatException ex) {
+                        // Likewise for a corrupt one.
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+            referenced.removeAll(defined.keySet());
+            return new Packages(defined, referenced);
+        }
+
+        private void read(ByteBuffer buffer, long[] entry) throws IOException, DataFormatException {
+            int length = (int) entry[2];
+            buffer.position((int) entry[0]);
+            limit = 0;
+            if (entry[1] == STORED) {
+                if (data.length < length) {
+                    data = new byte[Math.max(length, data.length * 2)];
+                }
+                buffer.get(data, 0, length);
+                limit = length;
+                inflater.reset();
+            } else {
+                if (input.length < length) {
+                    input = new byte[Math.max(length, input.length * 2)];
+                }
+                buffer.get(input, 0, length);
+                if (data.length < entry[3]) {
+                    data = new byte[(int) Math.min(entry[3], 1 << 20)];
+                }
+                inflater.reset();
+                inflater.setInput(input, 0, length);
+            }
+            parse();
+        }
+
+        /**
+         * Make at least count bytes from pos available in data.
+         */
+        private void need(int pos, int count) throws IOException, DataFormatException {
+            while (limit - pos < count) {
+                if (inflater.finished() || inflater.needsInput()) {
+                    throw new IOException("Truncated class");
+                }
+                if (limit == data.length) {
+                    byte[] grown = new byte[data.length * 2];
+                    System.arraycopy(data, 0, grown, 0, limit);
+                    data = grown;
+                }
+                // A step at a time, so data only grows with what is read.
+                int n = inflater.inflate(data, limit, Math.min(data.length - limit, STEP));
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new IOException("Deflate dictionary in class");
+                }
+                limit += n;
+            }
+        }
+
+        private int u2(int pos) {
+            return (data[pos] & 0xff) << 8 | data[pos + 1] & 0xff;
+        }
+
+        private int u4(int pos) {
+            return u2(pos) << 16 | u2(pos + 2);
+        }
+
+        /**
+         * Read the constant pool and this class's name, then the descriptors
+         * and signatures of its fields, methods and the class itself.
+         */
+        private void parse() throws IOException, DataFormatException {
+            need(0, 10);
+            if (data[0] != (byte) 0xca || data[1] != (byte) 0xfe || data[2] != (byte) 0xba || data[3] != (byte) 0xbe) {
+                throw new IOException("Not a class file");
+            }
+            int count = u2(8);
+            // Offset of each utf8 entry, and the utf8 entry named by each class entry.
+            int[] utf8 = new int[count];
+            int[] classes = new int[count];
+            // Utf8 entries used as a descriptor or signature.
+            boolean[] descriptors = new boolean[count];
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                need(pos, 1);
+                int tag = data[pos++];
+                switch (tag) {
+                    case 1: // Utf8
+                        need(pos, 2);
+                        utf8[i] = pos;
+                        need(pos, 2 + u2(pos));
+                        pos += 2 + u2(pos);
+                        break;
+                    case 7: // Class
+                        need(pos, 2);
+                        classes[i] = u2(pos);
+                        pos += 2;
+                        break;
+                    case 16: // MethodType
+                        need(pos, 2);
+                        mark(descriptors, u2(pos));
+                        pos += 2;
+                        break;
+                    case 12: // NameAndType
+                        need(pos, 4);
+                        mark(descriptors, u2(pos + 2));
+                        pos += 4;
+                        break;
+                    case 8: // String
+                    case 19: // Module
+                    case 20: // Package
+                        pos += 2;
+                        break;
+                    case 15: // MethodHandle
+                        pos += 3;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        pos += 4;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        pos += 8;
+                        i++;
+                        break;
+                    default:
+                        throw new IOException("Bad constant pool tag " + tag);
+                }
+            }
+            need(pos, 8);
+            int self = u2(pos + 2);
+            if (self >= count || classes[self] == 0) {
+                throw new IOException("Bad this class " + self);
+            }
+            String name = string(utf8, classes[self]);
+            int slash = name.lastIndexOf('/');
+            if (slash > 0 && !defined.containsKey(name.substring(0, slash))) {
+                defined.put(name.substring(0, slash), name);
+            }
+            // Past the interfaces to the fields, then the methods.
+            pos += 8 + 2 * u2(pos + 6);
+            int signature = find(utf8, "Signature");
+            for (int kind = 0; kind < 2; kind++) {
+                need(pos, 2);
+                int members = u2(pos);
+                pos += 2;
+                for (int j = 0; j < members; j++) {
+                    need(pos, 8);
+                    mark(descriptors, u2(pos + 4));
+                    pos = attributes(pos + 6, signature, descriptors);
+                }
+            }
+            attributes(pos, signature, descriptors);
+            for (int i = 1; i < count; i++) {
+                if (classes[i] != 0 && classes[i] < count && utf8[classes[i]] != 0) {
+                    String reference = string(utf8, classes[i]);
+                    if (reference.startsWith("[")) {
+                        // Array classes are named by their descriptor.
+                        descriptor(reference);
+                    } else {
+                        reference(reference, 0, reference.length());
+                    }
+                } else if (descriptors[i] && utf8[i] != 0) {
+                    descriptor(string(utf8, i));
+                }
+            }
+        }
+
+        /**
+         * Skip the attributes at pos, marking what a signature attribute
+         * names, and return where they end.
+         */
+        private int attributes(int pos, int signature, boolean[] descriptors) throws IOException, DataFormatException {
+            need(pos, 2);
+            int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                need(pos, 6);
+                int length = u4(pos + 2);
+                if (length < 0 || length > Integer.MAX_VALUE - 6 - pos) {
+                    throw new IOException("Bad attribute length " + length);
+                }
+                if (signature != 0 && u2(pos) == signature && length == 2) {
+                    need(pos + 6, 2);
+                    mark(descriptors, u2(pos + 6));
+                }
+                pos += 6 + length;
+            }
+            return pos;
+        }
+
+        /**
+         * Index of the utf8 entry holding value, or 0 if there is none.
+         */
+        private int find(int[] utf8, String value) throws IOException {
+            for (int i = 1; i < utf8.length; i++) {
+                if (utf8[i] != 0 && u2(utf8[i]) == value.length() && string(utf8, i).equals(value)) {
+                    return i;
+                }
+            }
+            return 0;
+        }
+
+        private static void mark(boolean[] descriptors, int index) {
+            if (index > 0 && index < descriptors.length) {
+                descriptors[index] = true;
+            }
+        }
+
+        private String string(int[] utf8, int index) throws IOException {
+            if (index <= 0 || index >= utf8.length || utf8[index] == 0) {
+                throw new IOException("Bad constant pool index " + index);
+            }
+            int pos = utf8[index];
+            return new String(data, pos + 2, u2(pos), Charsets.UTF_8);
+        }
+
+        private void descriptor(String descriptor) {
+            for (int i = descriptor.indexOf('L'); i != -1; i = descriptor.indexOf('L', i)) {
+                int end = i + 1;
+                while (end < descriptor.length() && descriptor.charAt(end) != ';' && descriptor.charAt(end) != '<') {
+                    end++;
+                }
+                if (end == descriptor.length()) {
+                    return;
+                }
+                reference(descriptor, i + 1, end);
+                i = end;
+            }
+        }
+
+        private void reference(String name, int start, int end) {
+            int slash = name.lastIndexOf('/', end - 1);
+            if (slash > start && !name.startsWith("java/", start)) {
+                referenced.add(name.substring(start, slash));
+            }
+        }
+    }
+
+    /**
+     * Scans a range of jars into the matching slots of packages, through a
+     * cache, or the reason it failed into errors.
+     */
+    @SuppressWarnings("serial")
+    static final class JarTask extends RecursiveAction {
+        private final File[] jars;
+        private final ClassScanCache cache;
+        private final Packages[] packages;
+        private final String[] errors;
+        private final int start;
+        private final int end;
+
+        JarTask(File[] jars, ClassScanCache cache, Packages[] packages, String[] errors, int start, int end) {
+            this.jars = jars;
+            this.cache = cache;
+            this.packages = packages;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new JarTask(jars, cache, packages, errors, start, mid), new JarTask(jars, cache, packages, errors, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                try {
+                    packages[i] = cache.get(jars[i]);
+                } catch (IOException ex) {
+                    errors[i] = ex.toString();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Longest chain through the enable order weighted by measured enable times,
+ * following dependency, soft dependency and world load edges, and how much
+ * each plugin could slow down before it lengthened that chain.
+ */
+final class CriticalPath {
+
+    private final List<String> path;
+    private final long length;
+    private final Map<String,Long> enableTimes;
+    private final Map<String,Long> slack;
+
+    CriticalPath(List<String> path, long length, Map<String,Long> enableTimes, Map<String,Long> slack) {
+        this.path = path;
+        this.length = length;
+        this.enableTimes = enableTimes;
+        this.slack = slack;
+    }
+
+    /**
+     * The chain, in enable order, including __WORLD_LOAD__ when world loading
+     * is part of it.
+     */
+    public List<String> getPath() {
+        return path;
+    }
+
+    /**
+     * Total weight of the chain in nanoseconds.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Measured enable time in nanoseconds of each plugin, in enable order.
+     */
+    public Map<String,Long> getEnableTimes() {
+        return enableTimes;
+    }
+
+    /**
+     * Slack in nanoseconds of each plugin, zero for those on the critical path.
+     */
+    public Map<String,Long> getSlack() {
+        return slack;
+    }
+
+    static String millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + " ms";
+    }
+}
@@ -0,0 +1,74 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.List;
+
+/**
+ * One strongly connected component of the graph which contains a cycle,
+ * with a suggestion of which declarations to drop to break it.
+ */
+final class Cycle {
+
+    private final List<String> members;
+    private final String[] feedbackFrom;
+    private final String[] feedbackTo;
+    private final EdgeType[] feedbackType;
+
+    Cycle(List<String> members, String[] feedbackFrom, String[] feedbackTo, EdgeType[] feedbackType) {
+        this.members = members;
+        this.feedbackFrom = feedbackFrom;
+        this.feedbackTo = feedbackTo;
+        this.feedbackType = feedbackType;
+    }
+
+    /**
+     * Plugin names in the cycle, sorted, including __WORLD_LOAD__ if the
+     * cycle goes through the loading of worlds.
+     */
+    List<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * Number of edge types in the feedback set. Ignoring all of them leaves
+     * the component acyclic, and for all but very large cycles none of them
+     * can be kept without bringing a cycle back. Load before, then soft
+     * dependencies, are chosen first.
+     */
+    int getFeedbackCount() {
+        return feedbackType.length;
+    }
+
+    String getFeedbackFrom(int i) {
+        return feedbackFrom[i];
+    }
+
+    String getFeedbackTo(int i) {
+        return feedbackTo[i];
+    }
+
+    EdgeType getFeedbackType(int i) {
+        return feedbackType[i];
+    }
+
+    /**
+     * The declaration to remove for a feedback edge, as it would be written
+     * in the declaring plugin's plugin.yml.
+     */
+    String describeFeedback(int i) {
+        String from = feedbackFrom[i];
+        String to = feedbackTo[i];
+        switch (feedbackType[i]) {
+            case DEPENDENCY:
+                return from + ": depend " + to;
+            case SOFT_DEPENDENCY:
+                return from + ": softdepend " + to;
+            case LOAD_BEFORE:
+                // Reversed, the edge runs from the named plugin to the declaring one.
+                return to + ": loadbefore " + from;
+            case WORLD_LOAD:
+                return to.equals(DependencyGraph.WORLD_LOAD_NAME) ? from + ": load POSTWORLD" : to + ": load STARTUP";
+            default:
+                throw new IllegalStateException(feedbackType[i].name());
+        }
+    }
+}
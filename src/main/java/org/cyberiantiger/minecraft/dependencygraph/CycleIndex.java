@@ -0,0 +1,891 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Strongly connected components of an {@link AdjacencyStore} over edges of
+ * some types, kept up to date as edges come and go.
+ *
+ * Each node belongs to the component named by one of its members. Adding an
+ * edge between components only merges anything when the head reaches back
+ * to the tail, and then only the components on those paths. Removing an
+ * edge inside a component only marks it to be split, by rerunning Tarjan's
+ * algorithm over that component alone, when components are next read, so a
+ * plugin going costs one run however many of its edges were in the cycle.
+ * Until then a component may be several, which searches for merges do not
+ * mind; an edge added inside one is searched like an edge between two.
+ * Components which contain a cycle get a {@link Cycle} with a feedback set,
+ * recomputed only for the components which changed.
+ */
+final class CycleIndex {
+
+    // Drop order for feedback sets, cheapest declaration to lose first.
+    private static final EdgeType[] DROP_ORDER = {
+        EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY, EdgeType.WORLD_LOAD
+    };
+
+    // Largest component whose feedback set is made minimal by trying each
+    // edge again, bigger ones only put back what the order agrees with.
+    private static final int MINIMAL_LIMIT = 1024;
+
+    private final AdjacencyStore store;
+    private final byte mask;
+    // Representative of each node's component.
+    private int[] component = new int[16];
+    // Members by representative, null unless the component has a cycle.
+    private int[][] members = new int[16][];
+    private final Map<Integer,Cycle> cycles = new TreeMap<Integer,Cycle>();
+    private final Set<Integer> dirty = new HashSet<Integer>();
+    // Components which may have come apart since they were last split.
+    private final Set<Integer> unsplit = new HashSet<Integer>();
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private List<Cycle> published = Collections.emptyList();
+    private boolean changed;
+    private boolean stale = true;
+    // Scratch for searches, a node is marked when its entry equals epoch.
+    private int[] mark = new int[16];
+    private int epoch;
+    // Scratch for local indexes of the nodes of one component.
+    private int[] slot = new int[16];
+
+    /**
+     * @param store the graph
+     * @param mask the edge types to follow
+     */
+    CycleIndex(AdjacencyStore store, byte mask) {
+        this.store = store;
+        this.mask = mask;
+    }
+
+    /**
+     * The cycles in the graph, ordered by their first member. The list is
+     * immutable and only replaced when a cycle changes, so snapshots can
+     * share it.
+     */
+    List<Cycle> getCycles() {
+        build();
+        flush();
+        if (!dirty.isEmpty()) {
+            for (Integer rep : dirty) {
+                if (members[rep] != null) {
+                    cycles.put(rep, feedback(store, mask, members[rep]));
+                }
+            }
+            dirty.clear();
+            changed = true;
+        }
+        if (changed) {
+            published = sorted(cycles.values());
+            changed = false;
+        }
+        return published;
+    }
+
+    /**
+     * The cycles as they are now, for a snapshot whose store is a frozen
+     * copy of this one's. Feedback sets for components which changed are
+     * only found when the snapshot's cycles are first read, from the frozen
+     * copy, so taking a snapshot costs no more than copying their members.
+     */
+    Cycles freeze(AdjacencyStore frozen) {
+        build();
+        flush();
+        if (dirty.isEmpty() && !changed) {
+            return new Cycles(published);
+        }
+        Map<Integer,Cycle> known = new HashMap<Integer,Cycle>(cycles);
+        Map<Integer,int[]> pending = new HashMap<Integer,int[]>();
+        for (Integer rep : dirty) {
+            known.remove(rep);
+            if (members[rep] != null) {
+                pending.put(rep, members[rep].clone());
+            }
+        }
+        return new Cycles(frozen, mask, known, pending);
+    }
+
+    /**
+     * Take over the feedback sets a snapshot found, if it was read. Has to
+     * happen before anything changes after {@link #freeze}.
+     */
+    void adopt(Cycles frozen) {
+        Map<Integer,Cycle> found = frozen.found;
+        if (found == null || stale) {
+            return;
+        }
+        cycles.putAll(found);
+        dirty.clear();
+        published = frozen.cycles;
+        changed = false;
+    }
+
+    private static List<Cycle> sorted(Collection<Cycle> cycles) {
+        List<Cycle> result = new ArrayList<Cycle>(cycles);
+        Collections.sort(result, new Comparator<Cycle>() {
+            @Override
+            public int compare(Cycle a, Cycle b) {
+                return a.getMembers().get(0).compareTo(b.getMembers().get(0));
+            }
+        });
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * The cycles of a snapshot, whose feedback sets are found on first read.
+     */
+    static final class Cycles {
+        private final AdjacencyStore store;
+        private final byte mask;
+        private final Map<Integer,Cycle> known;
+        // Members of components which need a feedback set, by representative.
+        private final Map<Integer,int[]> pending;
+        // Both set once read, cycles first, so found being set means both are.
+        private volatile Map<Integer,Cycle> found;
+        private volatile List<Cycle> cycles;
+
+        Cycles(List<Cycle> cycles) {
+            this(null, (byte) 0, Collections.<Integer,Cycle>emptyMap(), Collections.<Integer,int[]>emptyMap());
+            this.found = Collections.emptyMap();
+            this.cycles = cycles;
+        }
+
+        Cycles(AdjacencyStore store, byte mask, Map<Integer,Cycle> known, Map<Integer,int[]> pending) {
+            this.store = store;
+            this.mask = mask;
+            this.known = known;
+            this.pending = pending;
+        }
+
+        List<Cycle> get() {
+            List<Cycle> result = cycles;
+            if (result == null) {
+                // Threads racing here each find the same sets, any will do.
+                Map<Integer,Cycle> sets = new HashMap<Integer,Cycle>(pending.size() * 2);
+                for (Map.Entry<Integer,int[]> e : pending.entrySet()) {
+                    sets.put(e.getKey(), feedback(store, mask, e.getValue()));
+                }
+                Map<Integer,Cycle> all = new HashMap<Integer,Cycle>(known);
+                all.putAll(sets);
+                result = sorted(all.values());
+                cycles = result;
+                found = sets;
+            }
+            return result;
+        }
+    }
+
+    void nodeAdded(int id) {
+        if (stale) {
+            return;
+        }
+        ensureCapacity(id + 1);
+        component[id] = id;
+        members[id] = null;
+    }
+
+    void nodeRemoved(int id) {
+        // All its edges went first, so it is on its own once split off.
+        if (!stale) {
+            flush();
+            component[id] = -1;
+        }
+    }
+
+    /**
+     * Called after the types in added have been added to the edge from a node to a child.
+     */
+    void edgeAdded(int from, int to, byte added) {
+        added &= mask;
+        if (stale || added == 0) {
+            return;
+        }
+        int rep = component[from];
+        if (rep == component[to]) {
+            if (members[rep] != null && unsplit.contains(rep)) {
+                // It may have come apart, and this edge join the parts again
+                // through nodes outside it, so take in whatever is on a path
+                // back round and leave it to the split to sort out.
+                search(to, false, -1);
+                merge(search(from, true, epoch));
+            } else if (members[rep] != null) {
+                // New types inside a cycle change its feedback set.
+                dirty.add(rep);
+            } else if (from == to) {
+                members[rep] = new int[] { from };
+                dirty.add(rep);
+            }
+            return;
+        }
+        if ((store.getEdge(from, to) & mask) != added) {
+            // Only new types on an existing edge between components.
+            return;
+        }
+        if (store.getParentCount(from) == 0 || store.getChildCount(to) == 0) {
+            return;
+        }
+        if (!closesCycle(from, to)) {
+            return;
+        }
+        // Forward from the head, then back from the tail through what was reached.
+        search(to, false, -1);
+        int reached = epoch;
+        int[] merged = search(from, true, reached);
+        merge(merged);
+    }
+
+    /**
+     * Called after the edge from a node to a child has been removed, removed
+     * being the types it had.
+     */
+    void edgeRemoved(int from, int to, byte removed) {
+        if (stale || (removed & mask) == 0) {
+            return;
+        }
+        int rep = component[from];
+        if (rep == component[to] && members[rep] != null) {
+            unsplit.add(rep);
+        }
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Split any components which lost edges, the index must be built.
+     */
+    void flush() {
+        if (unsplit.isEmpty()) {
+            return;
+        }
+        Integer[] reps = unsplit.toArray(new Integer[unsplit.size()]);
+        unsplit.clear();
+        for (Integer rep : reps) {
+            if (members[rep] != null) {
+                split(members[rep]);
+            }
+        }
+    }
+
+    /**
+     * Representative of a node's component, as of the last flush.
+     */
+    int getComponent(int id) {
+        return component[id];
+    }
+
+    /**
+     * Members of a node's component if it has a cycle, else null, as of the
+     * last flush. The array must not be changed.
+     */
+    int[] getMembers(int id) {
+        return members[component[id]];
+    }
+
+    /**
+     * Members of every component with a cycle.
+     */
+    List<int[]> getCyclicComponents() {
+        build();
+        flush();
+        List<int[]> result = new ArrayList<int[]>();
+        for (int id = 0; id < store.getCapacity(); id++) {
+            if (component[id] == id && members[id] != null) {
+                result.add(members[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bring the index up to date, {@link #getCycles()} does this itself.
+     */
+    void build() {
+        if (!stale) {
+            return;
+        }
+        int capacity = store.getCapacity();
+        component = new int[Math.max(16, capacity)];
+        members = new int[component.length][];
+        mark = new int[component.length];
+        slot = new int[component.length];
+        Arrays.fill(component, -1);
+        cycles.clear();
+        dirty.clear();
+        unsplit.clear();
+        changed = true;
+        int count = 0;
+        int[] live = new int[capacity];
+        for (int id = 0; id < capacity; id++) {
+            if (store.getNode(id) != null) {
+                live[count++] = id;
+            }
+        }
+        stale = false;
+        tarjan(Arrays.copyOf(live, count));
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > component.length) {
+            int length = Math.max(size, component.length * 2);
+            component = Arrays.copyOf(component, length);
+            members = Arrays.copyOf(members, length);
+            mark = Arrays.copyOf(mark, length);
+            slot = Arrays.copyOf(slot, length);
+        }
+    }
+
+    /**
+     * Whether the head of a new edge between components reaches its tail.
+     * Searches forward from the head and back from the tail a node at a
+     * time each, so it stops as soon as the smaller side runs out.
+     */
+    private boolean closesCycle(int from, int to) {
+        int forward = ++epoch;
+        int backward = ++epoch;
+        int[][] queue = { new int[16], new int[16] };
+        int[] head = new int[2];
+        int[] tail = { 1, 1 };
+        queue[0][0] = to;
+        queue[1][0] = from;
+        mark[to] = forward;
+        mark[from] = backward;
+        while (head[0] < tail[0] && head[1] < tail[1]) {
+            for (int side = 0; side < 2; side++) {
+                int own = side == 0 ? forward : backward;
+                int other = side == 0 ? backward : forward;
+                int v = queue[side][head[side]++];
+                int count = side == 0 ? store.getChildCount(v) : store.getParentCount(v);
+                int[] ids = side == 0 ? store.getChildIds(v) : store.getParentIds(v);
+                byte[] types = side == 0 ? store.getChildTypes(v) : store.getParentTypes(v);
+                for (int i = 0; i < count; i++) {
+                    int w = ids[i];
+                    if ((types[i] & mask) == 0) {
+                        continue;
+                    }
+                    if (mark[w] == other) {
+                        return true;
+                    }
+                    if (mark[w] != own) {
+                        mark[w] = own;
+                        if (tail[side] == queue[side].length) {
+                            queue[side] = Arrays.copyOf(queue[side], tail[side] * 2);
+                        }
+                        queue[side][tail[side]++] = w;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mark and return every node reachable from start, following parent
+     * edges if backwards. If within is not -1 only nodes marked in that
+     * epoch are visited.
+     */
+    private int[] search(int start, boolean backwards, int within) {
+        epoch++;
+        int[] queue = new int[16];
+        int tail = 0;
+        mark[start] = epoch;
+        queue[tail++] = start;
+        for (int head = 0; head < tail; head++) {
+            int v = queue[head];
+            int count = backwards ? store.getParentCount(v) : store.getChildCount(v);
+            int[] ids = backwards ? store.getParentIds(v) : store.getChildIds(v);
+            byte[] types = backwards ? store.getParentTypes(v) : store.getChildTypes(v);
+            for (int i = 0; i < count; i++) {
+                int w = ids[i];
+                if ((types[i] & mask) == 0 || mark[w] == epoch || (within != -1 && mark[w] != within)) {
+                    continue;
+                }
+                mark[w] = epoch;
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = w;
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Merge the components of the given nodes into one cycle.
+     */
+    private void merge(int[] nodes) {
+        Set<Integer> reps = new HashSet<Integer>();
+        boolean coarse = false;
+        int size = 0;
+        int largest = -1;
+        int largestSize = 0;
+        for (int v : nodes) {
+            if (reps.add(component[v])) {
+                int[] old = members[component[v]];
+                int length = old == null ? 1 : old.length;
+                size += length;
+                if (length > largestSize) {
+                    largest = component[v];
+                    largestSize = length;
+                }
+            }
+        }
+        int[] result = new int[size];
+        int n = 0;
+        int rep = Integer.MAX_VALUE;
+        // The largest part goes first, so the rest are the nodes which moved.
+        reps.remove(largest);
+        System.arraycopy(members[largest] == null ? new int[] { largest } : members[largest], 0, result, 0, largestSize);
+        n = largestSize;
+        if (members[largest] != null) {
+            members[largest] = null;
+            if (cycles.remove(largest) != null) {
+                changed = true;
+            }
+            dirty.remove(largest);
+            coarse |= unsplit.remove(largest);
+        }
+        rep = largest;
+        for (Integer old : reps) {
+            if (members[old] == null) {
+                result[n++] = old;
+            } else {
+                System.arraycopy(members[old], 0, result, n, members[old].length);
+                n += members[old].length;
+                members[old] = null;
+                if (cycles.remove(old) != null) {
+                    changed = true;
+                }
+                dirty.remove(old);
+                coarse |= unsplit.remove(old);
+            }
+            rep = Math.min(rep, old);
+        }
+        for (int v : result) {
+            component[v] = rep;
+        }
+        members[rep] = result;
+        dirty.add(rep);
+        if (coarse) {
+            // Still needs splitting, but now as one.
+            unsplit.add(rep);
+        }
+        if (!listeners.isEmpty()) {
+            int[] moved = Arrays.copyOfRange(result, largestSize, size);
+            for (Listener listener : listeners) {
+                listener.moved(moved);
+            }
+        }
+    }
+
+    /**
+     * Recompute the components of what was one component, leaving out any
+     * of its nodes which have since been removed.
+     */
+    private void split(int[] nodes) {
+        int rep = component[nodes[0]];
+        members[rep] = null;
+        if (cycles.remove(rep) != null) {
+            changed = true;
+        }
+        dirty.remove(rep);
+        int[] live = new int[nodes.length];
+        int count = 0;
+        for (int v : nodes) {
+            if (store.getNode(v) != null) {
+                live[count++] = v;
+            }
+        }
+        int largest = tarjan(count == nodes.length ? nodes : Arrays.copyOf(live, count));
+        if (!listeners.isEmpty()) {
+            int moved = 0;
+            for (int i = 0; i < count; i++) {
+                if (component[live[i]] != largest) {
+                    live[moved++] = live[i];
+                }
+            }
+            for (Listener listener : listeners) {
+                listener.moved(Arrays.copyOf(live, moved));
+            }
+        }
+    }
+
+    /**
+     * Tarjan over the subgraph induced by nodes, which must be a union of
+     * components, assigning each component found a representative.
+     *
+     * @return the representative of the largest component found
+     */
+    private int tarjan(int[] nodes) {
+        int n = nodes.length;
+        epoch++;
+        int inSet = epoch;
+        for (int v : nodes) {
+            mark[v] = inSet;
+        }
+        // Indexes local to this run, by position in nodes.
+        for (int i = 0; i < n; i++) {
+            slot[nodes[i]] = i;
+        }
+        int[] index = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callNode = new int[n];
+        int[] callPos = new int[n];
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int stackSize = 0;
+        int largest = -1;
+        int largestSize = 0;
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callNode[depth] = root;
+            callPos[depth++] = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int v = callNode[depth - 1];
+                int pos = callPos[depth - 1];
+                int id = nodes[v];
+                if (pos < store.getChildCount(id)) {
+                    callPos[depth - 1] = pos + 1;
+                    int child = store.getChildIds(id)[pos];
+                    if (mark[child] != inSet || (store.getChildTypes(id)[pos] & mask) == 0) {
+                        continue;
+                    }
+                    int w = slot[child];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callNode[depth] = w;
+                        callPos[depth++] = 0;
+                    } else if (onStack[w] && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                } else {
+                    depth--;
+                    if (low[v] == index[v]) {
+                        int bottom = stackSize;
+                        do {
+                            onStack[stack[--bottom]] = false;
+                        } while (stack[bottom] != v);
+                        int[] scc = new int[stackSize - bottom];
+                        int rep = Integer.MAX_VALUE;
+                        for (int i = bottom; i < stackSize; i++) {
+                            scc[i - bottom] = nodes[stack[i]];
+                            rep = Math.min(rep, nodes[stack[i]]);
+                        }
+                        stackSize = bottom;
+                        for (int w : scc) {
+                            component[w] = rep;
+                        }
+                        if (scc.length > largestSize) {
+                            largest = rep;
+                            largestSize = scc.length;
+                        }
+                        if (scc.length > 1 || (store.getEdge(scc[0], scc[0]) & mask) != 0) {
+                            members[rep] = scc;
+                            dirty.add(rep);
+                        } else {
+                            members[rep] = null;
+                        }
+                    }
+                    if (depth > 0) {
+                        int u = callNode[depth - 1];
+                        if (low[v] < low[u]) {
+                            low[u] = low[v];
+                        }
+                    }
+                }
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Feedback set for one component. Edge types are ignored in drop order
+     * within whatever is still cyclic, as {@link TopologicalSort} does, then
+     * those the resulting order agrees with are put back, then for small
+     * components each other one is if that does not close a cycle again.
+     * Members are taken in id order, so the result does not depend on how
+     * the component was found.
+     */
+    private static Cycle feedback(AdjacencyStore store, byte mask, int[] nodes) {
+        nodes = nodes.clone();
+        Arrays.sort(nodes);
+        int n = nodes.length;
+        // Internal edges in local indexes, which are positions in nodes. This
+        // may run off the graph's thread, so it keeps to its own scratch.
+        int edgeCount = 0;
+        for (int v : nodes) {
+            int[] children = store.getChildIds(v);
+            for (int i = 0; i < store.getChildCount(v); i++) {
+                if (Arrays.binarySearch(nodes, children[i]) >= 0) {
+                    edgeCount++;
+                }
+            }
+        }
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        byte[] active = new byte[edgeCount];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            int v = nodes[i];
+            int[] children = store.getChildIds(v);
+            byte[] types = store.getChildTypes(v);
+            for (int j = 0; j < store.getChildCount(v); j++) {
+                int local = Arrays.binarySearch(nodes, children[j]);
+                if (local >= 0) {
+                    from[e] = i;
+                    to[e] = local;
+                    active[e++] = (byte) (types[j] & mask);
+                }
+            }
+        }
+        LocalGraph graph = new LocalGraph(n, from, to, active);
+        int[] droppedEdge = new int[4];
+        byte[] droppedType = new byte[4];
+        int droppedCount = 0;
+        for (EdgeType type : DROP_ORDER) {
+            int[] group = graph.components();
+            for (e = 0; e < edgeCount; e++) {
+                if ((active[e] & type.getMask()) != 0 && group[from[e]] == group[to[e]]) {
+                    active[e] &= ~type.getMask();
+                    if (droppedCount == droppedEdge.length) {
+                        droppedEdge = Arrays.copyOf(droppedEdge, droppedCount * 2);
+                        droppedType = Arrays.copyOf(droppedType, droppedCount * 2);
+                    }
+                    droppedEdge[droppedCount] = e;
+                    droppedType[droppedCount++] = type.getMask();
+                }
+            }
+        }
+        // Anything the order of what is left agrees with can go straight back.
+        int[] position = graph.order();
+        boolean[] keep = new boolean[droppedCount];
+        for (int i = 0; i < droppedCount; i++) {
+            e = droppedEdge[i];
+            keep[i] = position[to[e]] >= position[from[e]];
+        }
+        for (int i = 0; i < droppedCount; i++) {
+            if (!keep[i]) {
+                active[droppedEdge[i]] |= droppedType[i];
+            }
+        }
+        // Then try to put back the most important types first, one search
+        // each, while the component is small enough for that to be cheap.
+        int kept = 0;
+        for (int i = droppedCount - 1; i >= 0; i--) {
+            if (!keep[i]) {
+                continue;
+            }
+            e = droppedEdge[i];
+            if (n <= MINIMAL_LIMIT && (active[e] != 0 || (from[e] != to[e] && !graph.reachable(to[e], false)[from[e]]))) {
+                active[e] |= droppedType[i];
+                keep[i] = false;
+            } else {
+                kept++;
+            }
+        }
+        String[] feedbackFrom = new String[kept];
+        String[] feedbackTo = new String[kept];
+        EdgeType[] feedbackType = new EdgeType[kept];
+        int k = 0;
+        for (int i = 0; i < droppedCount; i++) {
+            if (keep[i]) {
+                feedbackFrom[k] = DependencyGraph.getDisplayName(store.getNode(nodes[from[droppedEdge[i]]]));
+                feedbackTo[k] = DependencyGraph.getDisplayName(store.getNode(nodes[to[droppedEdge[i]]]));
+                feedbackType[k++] = EdgeType.forMask(droppedType[i]);
+            }
+        }
+        List<String> names = new ArrayList<String>(n);
+        for (int v : nodes) {
+            names.add(DependencyGraph.getDisplayName(store.getNode(v)));
+        }
+        Collections.sort(names);
+        return new Cycle(Collections.unmodifiableList(names), feedbackFrom, feedbackTo, feedbackType);
+    }
+
+    /**
+     * A component's internal edges by local index, edges sorted by source.
+     */
+    private static final class LocalGraph {
+        private final int n;
+        private final int[] from;
+        private final int[] to;
+        private final byte[] active;
+        private final int[] outStart;
+        private final int[] inStart;
+        private final int[] inEdge;
+
+        LocalGraph(int n, int[] from, int[] to, byte[] active) {
+            this.n = n;
+            this.from = from;
+            this.to = to;
+            this.active = active;
+            outStart = new int[n + 1];
+            inStart = new int[n + 1];
+            for (int e = 0; e < from.length; e++) {
+                outStart[from[e] + 1]++;
+                inStart[to[e] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                outStart[v + 1] += outStart[v];
+                inStart[v + 1] += inStart[v];
+            }
+            inEdge = new int[from.length];
+            int[] fill = Arrays.copyOf(inStart, n);
+            for (int e = 0; e < from.length; e++) {
+                inEdge[fill[to[e]]++] = e;
+            }
+        }
+
+        /**
+         * Component of each node over active edges by Tarjan's algorithm,
+         * or -1 for nodes on no cycle.
+         */
+        int[] components() {
+            int[] result = new int[n];
+            int[] index = new int[n];
+            int[] low = new int[n];
+            boolean[] onStack = new boolean[n];
+            int[] stack = new int[n];
+            int[] callNode = new int[n];
+            int[] callPos = new int[n];
+            Arrays.fill(index, -1);
+            int counter = 0;
+            int stackSize = 0;
+            int groups = 0;
+            for (int root = 0; root < n; root++) {
+                if (index[root] != -1) {
+                    continue;
+                }
+                int depth = 0;
+                callNode[depth] = root;
+                callPos[depth++] = outStart[root];
+                index[root] = low[root] = counter++;
+                stack[stackSize++] = root;
+                onStack[root] = true;
+                while (depth > 0) {
+                    int v = callNode[depth - 1];
+                    int pos = callPos[depth - 1];
+                    if (pos < outStart[v + 1]) {
+                        callPos[depth - 1] = pos + 1;
+                        if (active[pos] == 0) {
+                            continue;
+                        }
+                        int w = to[pos];
+                        if (index[w] == -1) {
+                            index[w] = low[w] = counter++;
+                            stack[stackSize++] = w;
+                            onStack[w] = true;
+                            callNode[depth] = w;
+                            callPos[depth++] = outStart[w];
+                        } else if (onStack[w] && index[w] < low[v]) {
+                            low[v] = index[w];
+                        }
+                    } else {
+                        depth--;
+                        if (low[v] == index[v]) {
+                            int group = groups++;
+                            int w;
+                            do {
+                                w = stack[--stackSize];
+                                onStack[w] = false;
+                                result[w] = group;
+                            } while (w != v);
+                        }
+                        if (depth > 0) {
+                            int u = callNode[depth - 1];
+                            if (low[v] < low[u]) {
+                                low[u] = low[v];
+                            }
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Position of each node in an order of the active edges, children
+         * first, which must be acyclic.
+         */
+        int[] order() {
+            int[] pending = new int[n];
+            int[] queue = new int[n];
+            int tail = 0;
+            for (int v = 0; v < n; v++) {
+                for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+                    if (active[e] != 0) {
+                        pending[v]++;
+                    }
+                }
+                if (pending[v] == 0) {
+                    queue[tail++] = v;
+                }
+            }
+            int[] position = new int[n];
+            for (int head = 0; head < tail; head++) {
+                int v = queue[head];
+                position[v] = head;
+                for (int i = inStart[v]; i < inStart[v + 1]; i++) {
+                    int e = inEdge[i];
+                    if (active[e] != 0 && --pending[from[e]] == 0) {
+                        queue[tail++] = from[e];
+                    }
+                }
+            }
+            return position;
+        }
+
+        /**
+         * Nodes reachable from source over active edges, including source.
+         */
+        boolean[] reachable(int source, boolean backwards) {
+            boolean[] seen = new boolean[n];
+            int[] queue = new int[n];
+            int tail = 0;
+            seen[source] = true;
+            queue[tail++] = source;
+            for (int head = 0; head < tail; head++) {
+                int v = queue[head];
+                int start = backwards ? inStart[v] : outStart[v];
+                int end = backwards ? inStart[v + 1] : outStart[v + 1];
+                for (int i = start; i < end; i++) {
+                    int e = backwards ? inEdge[i] : i;
+                    int w = backwards ? from[e] : to[e];
+                    if (active[e] != 0 && !seen[w]) {
+                        seen[w] = true;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            return seen;
+        }
+    }
+
+    /**
+     * Told about nodes which have joined a component, or come apart from
+     * the largest part of one, as it happens.
+     */
+    interface Listener {
+        void moved(int[] nodes);
+    }
+}
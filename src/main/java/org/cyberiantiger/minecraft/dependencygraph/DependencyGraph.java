@@ -1,25 +1,117 @@
 package org.cyberiantiger.minecraft.dependencygraph;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.EnumSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import org.bukkit.plugin.PluginDescriptionFile;
 
 /**
  * Turn Bukkit's PluginDescriptionFile into something resembling a directed graph.
+ *
+ * Not thread safe, every change publishes a new {@link GraphSnapshot} which
+ * other threads can read through {@link #getSnapshot()}.
  */
 final class DependencyGraph {
 
-    private final Map<String,PluginNode> pluginNodeMap = new HashMap<String,PluginNode>();
-    private final SyntheticNode worldLoad = new SyntheticNode();
+    static final String WORLD_LOAD_NAME = "__WORLD_LOAD__";
+
+    private final AdjacencyStore store;
+    private final Map<String,PluginNode> pluginNodeMap = new LinkedHashMap<String,PluginNode>();
+    private final SyntheticNode worldLoad;
+    // Closure indexes kept up to date for snapshots, by GraphSnapshot slot.
+    // Readers of a snapshot build them, the graph takes them over.
+    private final ReachabilityIndex[] reachability;
+    private final CycleIndex cycleIndex;
+    private final OrderIndex initOrder;
+    private final OrderIndex enableOrder;
+    // Declared depend/softdepend/loadbefore names which are not in the graph, and who declared them.
+    private final Map<String,List<PendingEdge>> unresolved = new HashMap<String,List<PendingEdge>>();
+    private EnableTimes enableTimes;
+    private long version;
+    private volatile GraphSnapshot snapshot;
+    // Made on first use at each version, for every output to share.
+    private volatile EnableSort sorted;
+    private final boolean frozen;
+
+    DependencyGraph() {
+        this(Collections.<PluginDescriptor>emptyList());
+    }
+
+    /**
+     * Build a graph from many plugins at once. Gives the same graph as adding
+     * them one at a time in order.
+     */
+    DependencyGraph(Collection<PluginDescriptor> descriptions) {
+        store = new AdjacencyStore();
+        worldLoad = new SyntheticNode();
+        reachability = new ReachabilityIndex[GraphSnapshot.SLOTS];
+        cycleIndex = new CycleIndex(store, EdgeType.DECLARED);
+        // WORLD_LOAD does not affect init order, so it is the first thing to go.
+        initOrder = new OrderIndex(store, cycleIndex, EdgeType.WORLD_LOAD, EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY);
+        enableOrder = new OrderIndex(store, cycleIndex, EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY);
+        frozen = false;
+        store.add(worldLoad);
+        addAll(descriptions);
+        snapshot = freeze();
+    }
+
+    /**
+     * Graph over a snapshot's state, which can not be modified. Only the
+     * names of missing plugins are worked out again.
+     */
+    DependencyGraph(GraphSnapshot source) {
+        store = source.getStore();
+        SyntheticNode world = null;
+        for (int id = 0; id < store.getCapacity(); id++) {
+            Node node = store.getNode(id);
+            if (node instanceof PluginNode) {
+                pluginNodeMap.put(((PluginNode) node).getDescription().getName(), (PluginNode) node);
+            } else if (node != null) {
+                world = (SyntheticNode) node;
+            }
+        }
+        worldLoad = world;
+        reachability = null;
+        cycleIndex = null;
+        initOrder = null;
+        enableOrder = null;
+        frozen = true;
+        for (PluginNode node : pluginNodeMap.values()) {
+            PluginDescriptor description = node.getDescription();
+            parkMissing(node, description.getDepend(), EdgeType.DEPENDENCY);
+            parkMissing(node, description.getSoftDepend(), EdgeType.SOFT_DEPENDENCY);
+            parkMissing(node, description.getLoadBefore(), EdgeType.LOAD_BEFORE);
+            parkMissing(node, description.getInferred(), EdgeType.INFERRED);
+        }
+        enableTimes = source.getEnableTimes();
+        version = source.getVersion();
+        snapshot = source;
+    }
+
+    /**
+     * The latest version of this graph, can be called from any thread.
+     */
+    GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    long getVersion() {
+        return version;
+    }
 
     Collection<String> getPlugins() {
         List<String> result = new ArrayList<String>(pluginNodeMap.values().size());
@@ -29,15 +121,63 @@ final class DependencyGraph {
         return result;
     }
 
+    /**
+     * Unmodifiable live view of the plugin names.
+     */
+    Set<String> getPluginNames() {
+        return Collections.unmodifiableSet(pluginNodeMap.keySet());
+    }
+
+    /**
+     * Node id of a plugin in the {@link AdjacencyStore.Csr}.
+     */
+    int getNodeId(String name) {
+        PluginNode node = pluginNodeMap.get(name);
+        if (node == null) {
+            throw new IllegalStateException(name + " is not in the dependency graph");
+        }
+        return node.getId();
+    }
+
+    /**
+     * Plugin name of a node id, or __WORLD_LOAD__.
+     */
+    String getNodeName(int id) {
+        return getDisplayName(store.getNode(id));
+    }
+
+    int getWorldLoadId() {
+        return worldLoad.getId();
+    }
+
+    boolean isPlugin(int id) {
+        return store.getNode(id) instanceof PluginNode;
+    }
+
+    AdjacencyStore.Csr getCsr() {
+        return store.getCsr();
+    }
+
+    Collection<PluginDescriptor> getDescriptions() {
+        List<PluginDescriptor> result = new ArrayList<PluginDescriptor>(pluginNodeMap.size());
+        for (PluginNode node : pluginNodeMap.values()) {
+            result.add(node.getDescription());
+        }
+        return result;
+    }
+
     List<String> directDependencies(String name) {
         if (pluginNodeMap.containsKey(name)) {
             PluginNode node = pluginNodeMap.get(name);
-            PluginDescriptionFile description = node.getDescription();
+            PluginDescriptor description = node.getDescription();
             List<String> result = new ArrayList<String>(description.getDepend().size() + description.getSoftDepend().size());
-            for (Map.Entry<Node, Set<EdgeType>> e : node.getChildEdges().entrySet()) {
-                Set<EdgeType> type = e.getValue();
-                if (type.contains(EdgeType.DEPENDENCY) || type.contains(EdgeType.SOFT_DEPENDENCY)) {
-                    PluginNode depNode =  (PluginNode) e.getKey();
+            int id = node.getId();
+            int[] children = store.getChildIds(id);
+            byte[] types = store.getChildTypes(id);
+            byte mask = (byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask());
+            for (int i = 0; i < store.getChildCount(id); i++) {
+                if ((types[i] & mask) != 0) {
+                    PluginNode depNode =  (PluginNode) store.getNode(children[i]);
                     result.add(depNode.getDescription().getName());
                 }
             }
@@ -50,12 +190,10 @@ final class DependencyGraph {
     List<String> allDependencies(String name) {
         if (pluginNodeMap.containsKey(name)) {
             Node node = pluginNodeMap.get(name);
-            Set<Node> deps = new LinkedHashSet<Node>();
-            deepChildDependencies(deps, node, EnumSet.of(EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY));
-            deps.remove(node);
-            ArrayList<String> result = new ArrayList<String>(deps.size());
-            for (Node dep : deps) {
-                result.add(((PluginNode)dep).getDescription().getName());
+            int[] deps = getReachability((byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask()), false).closure(node.getId());
+            ArrayList<String> result = new ArrayList<String>(deps.length);
+            for (int dep : deps) {
+                result.add(((PluginNode)store.getNode(dep)).getDescription().getName());
             }
             return result;
         } else {
@@ -63,10 +201,24 @@ final class DependencyGraph {
         }
     }
 
+    /**
+     * Whether a plugin transitively depends or soft depends on another.
+     */
+    boolean dependsOn(String name, String dependency) {
+        PluginNode node = pluginNodeMap.get(name);
+        if (node == null) {
+            throw new IllegalStateException(name + " is not in the dependency graph");
+        }
+        PluginNode depNode = pluginNodeMap.get(dependency);
+        if (depNode == null) {
+            return false;
+        }
+        return node != depNode && getReachability((byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask()), false).reaches(node.getId(), depNode.getId());
+    }
+
     boolean dependenciesSatisfied(String name) {
         if (pluginNodeMap.containsKey(name)) {
             PluginNode node = pluginNodeMap.get(name);
-            Map<Node, Set<EdgeType>> edges = node.getChildEdges();
             for (String dep : node.getDescription().getDepend()) {
                 if (!pluginNodeMap.containsKey(dep))
                     return false;
@@ -78,127 +230,470 @@ final class DependencyGraph {
     }
 
     boolean addPluginDescription(PluginDescriptionFile description) {
+        return addPluginDescription(PluginDescriptor.of(description));
+    }
+
+    boolean addPluginDescription(PluginDescriptor description) {
+        checkMutable();
+        adoptIndexes();
+        long start = System.nanoTime();
+        try {
+            if (!add(description)) {
+                return false;
+            }
+            publish();
+            return true;
+        } finally {
+            Metrics.ADD_PLUGIN.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean add(PluginDescriptor description) {
         String name = description.getName();
         if (pluginNodeMap.containsKey(name)) {
             return false;
         }
         PluginNode pluginNode = new PluginNode(description);
         pluginNodeMap.put(name, pluginNode);
+        addNode(pluginNode);
         switch (description.getLoad()) {
             case STARTUP:
-                worldLoad.addChildEdge(pluginNode, EdgeType.WORLD_LOAD);
-                pluginNode.addParentEdge(worldLoad, EdgeType.WORLD_LOAD);
+                addEdge(worldLoad.getId(), pluginNode.getId(), EdgeType.WORLD_LOAD.getMask());
                 break;
             case POSTWORLD:
-                pluginNode.addChildEdge(worldLoad, EdgeType.WORLD_LOAD);
-                worldLoad.addParentEdge(pluginNode, EdgeType.WORLD_LOAD);
+                addEdge(pluginNode.getId(), worldLoad.getId(), EdgeType.WORLD_LOAD.getMask());
                 break;
         }
-        for (PluginNode otherNode : pluginNodeMap.values()) {
-            PluginDescriptionFile otherDescriptionFile = otherNode.getDescription();
-            for (String depend : otherDescriptionFile.getDepend()) {
-                if (name.equals(depend)) {
-                    otherNode.addChildEdge(pluginNode, EdgeType.DEPENDENCY);
-                    pluginNode.addParentEdge(otherNode, EdgeType.DEPENDENCY);
-                }
+        // Outgoing references, either wired now or parked until the target turns up.
+        for (String depend : description.getDepend()) {
+            resolve(pluginNode, depend, EdgeType.DEPENDENCY);
+        }
+        for (String softDepend : description.getSoftDepend()) {
+            resolve(pluginNode, softDepend, EdgeType.SOFT_DEPENDENCY);
+        }
+        for (String loadBefore : description.getLoadBefore()) {
+            resolve(pluginNode, loadBefore, EdgeType.LOAD_BEFORE);
+        }
+        for (String inferred : description.getInferred()) {
+            resolve(pluginNode, inferred, EdgeType.INFERRED);
+        }
+        // Incoming references from plugins which were waiting for this one.
+        List<PendingEdge> waiting = unresolved.remove(name);
+        if (waiting != null) {
+            for (PendingEdge pending : waiting) {
+                link(pending.getSource(), pluginNode, pending.getType());
+            }
+        }
+        return true;
+    }
+
+    boolean removePluginDescription(PluginDescriptionFile description) {
+        return removePluginDescription(description.getName());
+    }
+
+    /**
+     * Remove a plugin, touching only its own edges. References other plugins
+     * had to it are parked with the unresolved names, so they are wired up
+     * again straight away if it comes back.
+     */
+    boolean removePluginDescription(String name) {
+        checkMutable();
+        adoptIndexes();
+        long start = System.nanoTime();
+        try {
+            return remove(name);
+        } finally {
+            Metrics.REMOVE_PLUGIN.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean remove(String name) {
+        if (!pluginNodeMap.containsKey(name)) {
+            return false;
+        }
+        PluginNode removed = pluginNodeMap.remove(name);
+        PluginDescriptor description = removed.getDescription();
+        // Forget references this plugin was still waiting on.
+        unpark(removed, description.getDepend());
+        unpark(removed, description.getSoftDepend());
+        unpark(removed, description.getLoadBefore());
+        unpark(removed, description.getInferred());
+        // Park references other plugins had to this one.
+        int id = removed.getId();
+        int[] parents = store.getParentIds(id);
+        byte[] parentTypes = store.getParentTypes(id);
+        for (int i = 0; i < store.getParentCount(id); i++) {
+            Node parent = store.getNode(parents[i]);
+            if (parent == removed || parent.isSynthetic()) continue;
+            if ((parentTypes[i] & EdgeType.DEPENDENCY.getMask()) != 0) {
+                park((PluginNode) parent, name, EdgeType.DEPENDENCY);
+            }
+            if ((parentTypes[i] & EdgeType.SOFT_DEPENDENCY.getMask()) != 0) {
+                park((PluginNode) parent, name, EdgeType.SOFT_DEPENDENCY);
+            }
+            if ((parentTypes[i] & EdgeType.INFERRED.getMask()) != 0) {
+                park((PluginNode) parent, name, EdgeType.INFERRED);
+            }
+        }
+        int[] children = store.getChildIds(id);
+        byte[] childTypes = store.getChildTypes(id);
+        for (int i = 0; i < store.getChildCount(id); i++) {
+            Node child = store.getNode(children[i]);
+            if (child == removed || child.isSynthetic()) continue;
+            if ((childTypes[i] & EdgeType.LOAD_BEFORE.getMask()) != 0) {
+                park((PluginNode) child, name, EdgeType.LOAD_BEFORE);
+            }
+        }
+        // Only this node's own edges, taken from the end so nothing shifts.
+        int count;
+        while ((count = store.getChildCount(id)) > 0) {
+            removeEdge(id, store.getChildIds(id)[count - 1]);
+        }
+        while ((count = store.getParentCount(id)) > 0) {
+            removeEdge(store.getParentIds(id)[count - 1], id);
+        }
+        removeNode(id);
+        publish();
+        return true;
+    }
+
+    /**
+     * Bulk add to an empty graph in one pass over the names and one over the
+     * edges, with adjacency arrays sized up front from the declared
+     * references. Edges are added in the same order as by repeated
+     * {@link #add(PluginDescriptor)}, so even the adjacency arrays come out
+     * identical.
+     */
+    private void addAll(Collection<PluginDescriptor> descriptions) {
+        if (!pluginNodeMap.isEmpty()) {
+            throw new IllegalStateException("Bulk add needs an empty graph");
+        }
+        store.ensureCapacity(descriptions.size() + 1);
+        List<PluginNode> nodes = new ArrayList<PluginNode>(descriptions.size());
+        for (PluginDescriptor description : descriptions) {
+            String name = description.getName();
+            if (pluginNodeMap.containsKey(name)) {
+                continue;
+            }
+            PluginNode pluginNode = new PluginNode(description);
+            pluginNodeMap.put(name, pluginNode);
+            addNode(pluginNode);
+            nodes.add(pluginNode);
+        }
+        // Ids are handed out in order in an empty store, so a lower id means added earlier.
+        int capacity = store.getCapacity();
+        int[] children = new int[capacity];
+        int[] parents = new int[capacity];
+        for (PluginNode pluginNode : nodes) {
+            PluginDescriptor description = pluginNode.getDescription();
+            int id = pluginNode.getId();
+            switch (description.getLoad()) {
+                case STARTUP:
+                    children[worldLoad.getId()]++;
+                    parents[id]++;
+                    break;
+                case POSTWORLD:
+                    children[id]++;
+                    parents[worldLoad.getId()]++;
+                    break;
+            }
+            for (String depend : description.getDepend()) {
+                countEdge(children, parents, id, depend, false);
+            }
+            for (String softDepend : description.getSoftDepend()) {
+                countEdge(children, parents, id, softDepend, false);
+            }
+            for (String loadBefore : description.getLoadBefore()) {
+                countEdge(children, parents, id, loadBefore, true);
+            }
+            for (String inferred : description.getInferred()) {
+                countEdge(children, parents, id, inferred, false);
+            }
+        }
+        for (int id = 0; id < capacity; id++) {
+            store.reserve(id, children[id], parents[id]);
+        }
+        // References to plugins added later, by target id, in the order the one at a time path parks them.
+        List<List<PendingEdge>> waiting = new ArrayList<List<PendingEdge>>(Collections.<List<PendingEdge>>nCopies(capacity, null));
+        for (PluginNode pluginNode : nodes) {
+            PluginDescriptor description = pluginNode.getDescription();
+            switch (description.getLoad()) {
+                case STARTUP:
+                    addEdge(worldLoad.getId(), pluginNode.getId(), EdgeType.WORLD_LOAD.getMask());
+                    break;
+                case POSTWORLD:
+                    addEdge(pluginNode.getId(), worldLoad.getId(), EdgeType.WORLD_LOAD.getMask());
+                    break;
+            }
+            for (String depend : description.getDepend()) {
+                resolveInOrder(waiting, pluginNode, depend, EdgeType.DEPENDENCY);
+            }
+            for (String softDepend : description.getSoftDepend()) {
+                resolveInOrder(waiting, pluginNode, softDepend, EdgeType.SOFT_DEPENDENCY);
             }
-            for (String softDepend : otherDescriptionFile.getSoftDepend()) {
-                if (name.equals(softDepend)) {
-                    otherNode.addChildEdge(pluginNode, EdgeType.SOFT_DEPENDENCY);
-                    pluginNode.addParentEdge(otherNode, EdgeType.SOFT_DEPENDENCY);
+            for (String loadBefore : description.getLoadBefore()) {
+                resolveInOrder(waiting, pluginNode, loadBefore, EdgeType.LOAD_BEFORE);
+            }
+            for (String inferred : description.getInferred()) {
+                resolveInOrder(waiting, pluginNode, inferred, EdgeType.INFERRED);
+            }
+            List<PendingEdge> incoming = waiting.get(pluginNode.getId());
+            if (incoming != null) {
+                for (PendingEdge pending : incoming) {
+                    link(pending.getSource(), pluginNode, pending.getType());
                 }
             }
-            for (String loadBefore : otherDescriptionFile.getLoadBefore()) {
-                if (name.equals(loadBefore)) {
-                    // Reversed since load-before is backwards.
-                    pluginNode.addChildEdge(otherNode, EdgeType.LOAD_BEFORE);
-                    otherNode.addParentEdge(pluginNode, EdgeType.LOAD_BEFORE);
+        }
+    }
+
+    private void countEdge(int[] children, int[] parents, int id, String target, boolean reversed) {
+        PluginNode targetNode = pluginNodeMap.get(target);
+        if (targetNode == null) {
+            return;
+        }
+        if (reversed) {
+            children[targetNode.getId()]++;
+            parents[id]++;
+        } else {
+            children[id]++;
+            parents[targetNode.getId()]++;
+        }
+    }
+
+    private void resolveInOrder(List<List<PendingEdge>> waiting, PluginNode source, String target, EdgeType type) {
+        PluginNode targetNode = pluginNodeMap.get(target);
+        if (targetNode == null) {
+            park(source, target, type);
+        } else if (targetNode.getId() <= source.getId()) {
+            link(source, targetNode, type);
+        } else {
+            List<PendingEdge> list = waiting.get(targetNode.getId());
+            if (list == null) {
+                list = new ArrayList<PendingEdge>(2);
+                waiting.set(targetNode.getId(), list);
+            }
+            list.add(new PendingEdge(source, type));
+        }
+    }
+
+    private void checkMutable() {
+        if (frozen) {
+            throw new IllegalStateException("Snapshot graphs can not be modified");
+        }
+    }
+
+    /**
+     * Make the current state visible to other threads as a new version.
+     */
+    private void publish() {
+        version++;
+        snapshot = freeze();
+    }
+
+    /**
+     * Snapshot of the current state, handed what the incremental order,
+     * cycle and closure indexes have at this version.
+     */
+    private GraphSnapshot freeze() {
+        AdjacencyStore frozenStore = store.freeze();
+        long start = System.nanoTime();
+        int[] init = initOrder.getOrder();
+        Metrics.INIT_ORDER.record(System.nanoTime() - start);
+        start = System.nanoTime();
+        int[] enable = enableOrder.getOrder();
+        Metrics.ENABLE_ORDER.record(System.nanoTime() - start);
+        ReachabilityIndex[] closures = new ReachabilityIndex[GraphSnapshot.SLOTS];
+        for (int slot = 0; slot < closures.length; slot++) {
+            if (reachability[slot] != null && !reachability[slot].isStale()) {
+                closures[slot] = reachability[slot].share(frozenStore);
+            }
+        }
+        return new GraphSnapshot(version, frozenStore, enableTimes, init, enable, cycleIndex.freeze(frozenStore), closures);
+    }
+
+    /**
+     * Take over closure indexes and feedback sets readers built on the
+     * current snapshot, so they are kept up to date from now on instead of
+     * built for every version. Has to happen before the graph changes.
+     */
+    private void adoptIndexes() {
+        for (int slot = 0; slot < reachability.length; slot++) {
+            ReachabilityIndex built = snapshot.peekReachability(slot);
+            if (built != null && (reachability[slot] == null || reachability[slot].isStale())) {
+                reachability[slot] = built.share(store);
+            }
+        }
+        cycleIndex.adopt(snapshot.peekCycles());
+    }
+
+    /**
+     * Names which are referenced by depend, softdepend or loadbefore but are
+     * not in the graph.
+     */
+    Collection<String> getUnresolvedNames() {
+        return new ArrayList<String>(unresolved.keySet());
+    }
+
+    /**
+     * Plugins in the graph which reference the missing plugin name with the given edge type.
+     */
+    List<String> getUnresolvedReferences(String name, EdgeType type) {
+        List<PendingEdge> waiting = unresolved.get(name);
+        if (waiting == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(waiting.size());
+        for (PendingEdge pending : waiting) {
+            if (pending.getType() == type) {
+                result.add(pending.getSource().getDescription().getName());
+            }
+        }
+        return result;
+    }
+
+    private void resolve(PluginNode source, String target, EdgeType type) {
+        PluginNode targetNode = pluginNodeMap.get(target);
+        if (targetNode != null) {
+            link(source, targetNode, type);
+        } else {
+            park(source, target, type);
+        }
+    }
+
+    private void parkMissing(PluginNode source, List<String> targets, EdgeType type) {
+        for (String target : targets) {
+            if (!pluginNodeMap.containsKey(target)) {
+                park(source, target, type);
+            }
+        }
+    }
+
+    private void park(PluginNode source, String target, EdgeType type) {
+        List<PendingEdge> waiting = unresolved.get(target);
+        if (waiting == null) {
+            waiting = new ArrayList<PendingEdge>(2);
+            unresolved.put(target, waiting);
+        }
+        waiting.add(new PendingEdge(source, type));
+    }
+
+    private void unpark(PluginNode source, List<String> targets) {
+        for (String target : targets) {
+            List<PendingEdge> waiting = unresolved.get(target);
+            if (waiting == null) continue;
+            Iterator<PendingEdge> i = waiting.iterator();
+            while (i.hasNext()) {
+                if (i.next().getSource() == source) {
+                    i.remove();
                 }
             }
+            if (waiting.isEmpty()) {
+                unresolved.remove(target);
+            }
         }
-        for (String depend : description.getDepend()) {
-            if (pluginNodeMap.containsKey(depend)) {
-                PluginNode dep = pluginNodeMap.get(depend);
-                pluginNode.addChildEdge(dep, EdgeType.DEPENDENCY);
-                dep.addParentEdge(pluginNode, EdgeType.DEPENDENCY);
+    }
+
+    /**
+     * Add the edge for source declaring a relationship of type on target.
+     */
+    private void link(PluginNode source, PluginNode target, EdgeType type) {
+        if (type == EdgeType.LOAD_BEFORE) {
+            // Reversed since load-before is backwards.
+            addEdge(target.getId(), source.getId(), type.getMask());
+        } else {
+            addEdge(source.getId(), target.getId(), type.getMask());
+        }
+    }
+
+    // All changes to the store go through these so the reachability, cycle and order indexes can follow along.
+
+    private void addNode(Node node) {
+        int id = store.add(node);
+        for (ReachabilityIndex index : reachability) {
+            if (index != null) {
+                index.nodeAdded(id);
             }
         }
-        for (String softdepend : description.getSoftDepend()) {
-            if (pluginNodeMap.containsKey(softdepend)) {
-                PluginNode dep = pluginNodeMap.get(softdepend);
-                pluginNode.addChildEdge(dep, EdgeType.SOFT_DEPENDENCY);
-                dep.addParentEdge(pluginNode, EdgeType.SOFT_DEPENDENCY);
+        cycleIndex.nodeAdded(id);
+        initOrder.nodeAdded(id);
+        enableOrder.nodeAdded(id);
+    }
+
+    private void removeNode(int id) {
+        store.remove(id);
+        for (ReachabilityIndex index : reachability) {
+            if (index != null) {
+                index.nodeRemoved(id);
             }
         }
-        for (String loadBefore : description.getLoadBefore()) {
-            if (pluginNodeMap.containsKey(loadBefore)) {
-                PluginNode dep = pluginNodeMap.get(loadBefore);
-                dep.addChildEdge(pluginNode, EdgeType.LOAD_BEFORE); // Backwards
-                pluginNode.addParentEdge(dep, EdgeType.LOAD_BEFORE);
+        cycleIndex.nodeRemoved(id);
+        initOrder.nodeRemoved(id);
+        enableOrder.nodeRemoved(id);
+    }
+
+    private void addEdge(int from, int to, byte mask) {
+        byte added = (byte) (mask & ~store.getEdge(from, to));
+        if (added == 0) {
+            return;
+        }
+        store.addEdge(from, to, mask);
+        for (ReachabilityIndex index : reachability) {
+            if (index != null) {
+                index.edgeAdded(from, to, added);
             }
         }
-        return true;
+        cycleIndex.edgeAdded(from, to, added);
+        initOrder.edgeAdded(from, to, added);
+        enableOrder.edgeAdded(from, to, added);
     }
 
-    boolean removePluginDescription(PluginDescriptionFile description) {
-        if (!pluginNodeMap.containsKey(description.getName())) {
-            return false;
+    private void removeEdge(int from, int to) {
+        byte removed = store.getEdge(from, to);
+        if (removed == 0) {
+            return;
         }
-        Node removed = pluginNodeMap.remove(description.getName());
-        for (Node node : pluginNodeMap.values()) {
-            node.getChildEdges().remove(removed);
-            node.getParentEdges().remove(removed);
+        store.removeEdge(from, to);
+        for (ReachabilityIndex index : reachability) {
+            if (index != null) {
+                index.edgeRemoved(from, to, removed);
+            }
         }
-        worldLoad.getChildEdges().remove(removed);
-        worldLoad.getParentEdges().remove(removed);
-        return true;
+        cycleIndex.edgeRemoved(from, to, removed);
+        initOrder.edgeRemoved(from, to, removed);
+        enableOrder.edgeRemoved(from, to, removed);
+    }
+
+    /**
+     * Closure index for a set of edge types, following child edges (what a
+     * plugin needs) or parent edges (what needs a plugin), from the current
+     * snapshot.
+     */
+    private ReachabilityIndex getReachability(byte mask, boolean parents) {
+        return snapshot.getReachability(mask, parents);
     }
 
     List<String> getInitOrder() {
-        // Depth first topological sort.
-        Set<Node> head = new LinkedHashSet<Node>();
-        Set<Node> tail = new LinkedHashSet<Node>();
-        List<Node> remaining = new LinkedList<Node>(pluginNodeMap.values());
-        remaining.add(worldLoad);
-        // Do some really dumb stuff to break cyclic dependencies.
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY, EdgeType.LOAD_BEFORE, EdgeType.WORLD_LOAD));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY, EdgeType.LOAD_BEFORE));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.DEPENDENCY));
-        List<String> result = new ArrayList<String>(head.size() + tail.size() - 1);
-        for (Node node : head) {
+        int[] order = snapshot.getInitOrder();
+        List<String> result = new ArrayList<String>(pluginNodeMap.size());
+        for (int i : order) {
+            Node node = store.getNode(i);
             if (node instanceof PluginNode) {
                 result.add(((PluginNode)node).getDescription().getName());
             }
         }
-        int insertAt = result.size();
-        for (Node node : tail) {
-            if (node instanceof PluginNode) {
-                result.add(insertAt, ((PluginNode)node).getDescription().getName());
-            }
-        }
         return result;
     }
 
     List<String>[] getEnableOrder() {
-        // Depth first topological sort.
-        Set<Node> head = new LinkedHashSet<Node>();
-        Set<Node> tail = new LinkedHashSet<Node>();
-        List<Node> remaining = new LinkedList<Node>(pluginNodeMap.values());
-        remaining.add(worldLoad);
-        // Do some really dumb stuff to break cyclic dependencies.
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.WORLD_LOAD, EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY, EdgeType.LOAD_BEFORE));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.WORLD_LOAD, EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.WORLD_LOAD, EdgeType.DEPENDENCY));
-        depthFirstSort(head, tail, remaining, EnumSet.of(EdgeType.WORLD_LOAD));
-        head.addAll(remaining); // Should probably be assert(remaining.isEmpty())
         List<String> startup = new ArrayList<String>();
         List<String> postworld = new ArrayList<String>();
         boolean postWorld = false;
-        for (Node node : head) {
+        int[] order = snapshot.getEnableOrder();
+        for (int i : order) {
+            Node node = store.getNode(i);
             if (node == worldLoad) {
                 postWorld = true;
-            } else {
+            } else if (node != null) {
                 PluginNode pluginNode = (PluginNode) node;
                 if (postWorld) {
                     postworld.add(pluginNode.getDescription().getName());
@@ -207,33 +702,250 @@ final class DependencyGraph {
                 }
             }
         }
-        int postWorldInsert = postworld.size();
-        int startupInsert = startup.size();
-        postWorld = true;
-        for (Node node : tail) {
-            if (node == worldLoad) {
-                postWorld = false;
-            } else {
-                PluginNode pluginNode = (PluginNode) node;
-                if (postWorld) {
-                    postworld.add(postWorldInsert, pluginNode.getDescription().getName());
-                } else {
-                    startup.add(startupInsert, pluginNode.getDescription().getName());
+        return new List[] { startup, postworld };
+    }
+
+    /**
+     * Layered enable order for the startup and postworld phases, built on
+     * the same cycle breaking as {@link #getEnableOrder()}.
+     */
+    Wavefronts[] getEnableWavefronts() {
+        AdjacencyStore.Csr csr = store.getCsr();
+        TopologicalSort sort = getEnableSort();
+        byte mask = (byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask() | EdgeType.LOAD_BEFORE.getMask());
+        int[] order = sort.getOrder();
+        boolean[] postWorld = new boolean[csr.nodeCount];
+        boolean seenWorldLoad = false;
+        for (int i : order) {
+            if (i == worldLoad.getId()) {
+                seenWorldLoad = true;
+            }
+            postWorld[i] = seenWorldLoad;
+        }
+        // Children always come first in the order, so one pass fills in layers.
+        int[] layer = new int[csr.nodeCount];
+        int[] previous = new int[csr.nodeCount];
+        int[] layerCount = new int[2];
+        int[] deepest = { -1, -1 };
+        for (int v : order) {
+            if (!(store.getNode(v) instanceof PluginNode)) continue;
+            previous[v] = -1;
+            for (int e = csr.outStart[v]; e < csr.outStart[v + 1]; e++) {
+                int w = csr.to[e];
+                if ((sort.getActiveTypes(e) & mask) != 0 && w != v && postWorld[w] == postWorld[v] && layer[w] + 1 > layer[v]) {
+                    layer[v] = layer[w] + 1;
+                    previous[v] = w;
                 }
             }
+            int phase = postWorld[v] ? 1 : 0;
+            if (layer[v] + 1 > layerCount[phase]) {
+                layerCount[phase] = layer[v] + 1;
+                deepest[phase] = v;
+            }
         }
-        return new List[] { startup, postworld };
+        Wavefronts[] result = new Wavefronts[2];
+        for (int phase = 0; phase < 2; phase++) {
+            List<List<String>> layers = new ArrayList<List<String>>(layerCount[phase]);
+            for (int i = 0; i < layerCount[phase]; i++) {
+                layers.add(new ArrayList<String>());
+            }
+            for (int v : order) {
+                Node node = store.getNode(v);
+                if (node instanceof PluginNode && postWorld[v] == (phase == 1)) {
+                    layers.get(layer[v]).add(((PluginNode) node).getDescription().getName());
+                }
+            }
+            LinkedList<String> chain = new LinkedList<String>();
+            for (int v = deepest[phase]; v != -1; v = previous[v]) {
+                chain.addFirst(((PluginNode) store.getNode(v)).getDescription().getName());
+            }
+            result[phase] = new Wavefronts(layers, chain);
+        }
+        return result;
+    }
+
+    /**
+     * Attach measured enable times to the plugins in the graph, times for
+     * plugins which are not in the graph are ignored.
+     */
+    void setEnableTimes(EnableTimes times) {
+        checkMutable();
+        adoptIndexes();
+        enableTimes = times;
+        publish();
+    }
+
+    boolean hasEnableTimes() {
+        return enableTimes != null && !enableTimes.getPlugins().isEmpty();
+    }
+
+    /**
+     * Measured enable time of a node id in nanoseconds, zero if unknown.
+     */
+    long getEnableTime(int id) {
+        return getEnableTime(store.getNode(id));
+    }
+
+    private long getEnableTime(Node node) {
+        if (enableTimes == null) {
+            return 0;
+        }
+        if (node == worldLoad) {
+            return enableTimes.getWorldLoad();
+        }
+        Long time = enableTimes.getPlugins().get(getDisplayName(node));
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * Full sort of the graph in enable order, with the edges it ignored to
+     * break cycles, made once per version.
+     */
+    TopologicalSort getEnableSort() {
+        return enableSort().sort;
+    }
+
+    private EnableSort enableSort() {
+        EnableSort result = sorted;
+        if (result == null || result.version != version) {
+            // Threads racing here each sort the same graph, any will do.
+            result = new EnableSort(version, TopologicalSort.sort(store.getCsr(), EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY));
+            sorted = result;
+        }
+        return result;
+    }
+
+    /**
+     * Critical path through the enable order using the measured enable
+     * times, plugins without a time weigh nothing. Made once per version.
+     */
+    CriticalPath getCriticalPath() {
+        EnableSort sort = enableSort();
+        CriticalPath result = sort.criticalPath;
+        if (result == null) {
+            result = criticalPath(sort.sort);
+            sort.criticalPath = result;
+        }
+        return result;
+    }
+
+    private CriticalPath criticalPath(TopologicalSort sort) {
+        AdjacencyStore.Csr csr = store.getCsr();
+        byte mask = (byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask() | EdgeType.WORLD_LOAD.getMask());
+        int[] order = sort.getOrder();
+        // Earliest finish, children come first in the order.
+        long[] finish = new long[csr.nodeCount];
+        int[] previous = new int[csr.nodeCount];
+        int last = -1;
+        for (int v : order) {
+            Node node = store.getNode(v);
+            if (node == null) continue;
+            long start = 0;
+            previous[v] = -1;
+            for (int e = csr.outStart[v]; e < csr.outStart[v + 1]; e++) {
+                int w = csr.to[e];
+                if ((sort.getActiveTypes(e) & mask) != 0 && w != v && finish[w] > start) {
+                    start = finish[w];
+                    previous[v] = w;
+                }
+            }
+            finish[v] = start + getEnableTime(node);
+            if (last == -1 || finish[v] > finish[last]) {
+                last = v;
+            }
+        }
+        long length = last == -1 ? 0 : finish[last];
+        // Latest finish which does not delay the end, parents come last in the order.
+        long[] latest = new long[csr.nodeCount];
+        Arrays.fill(latest, length);
+        for (int i = order.length - 1; i >= 0; i--) {
+            int v = order[i];
+            Node node = store.getNode(v);
+            if (node == null) continue;
+            long start = latest[v] - getEnableTime(node);
+            for (int e = csr.outStart[v]; e < csr.outStart[v + 1]; e++) {
+                int w = csr.to[e];
+                if ((sort.getActiveTypes(e) & mask) != 0 && w != v && start < latest[w]) {
+                    latest[w] = start;
+                }
+            }
+        }
+        LinkedList<String> path = new LinkedList<String>();
+        for (int v = last; v != -1; v = previous[v]) {
+            path.addFirst(getDisplayName(store.getNode(v)));
+        }
+        Map<String,Long> enableTimes = new LinkedHashMap<String,Long>();
+        Map<String,Long> slack = new LinkedHashMap<String,Long>();
+        for (int v : order) {
+            Node node = store.getNode(v);
+            if (node instanceof PluginNode) {
+                String name = getDisplayName(node);
+                enableTimes.put(name, getEnableTime(node));
+                slack.put(name, latest[v] - finish[v]);
+            }
+        }
+        return new CriticalPath(path, length, enableTimes, slack);
+    }
+
+    static String getDisplayName(Node node) {
+        return node instanceof PluginNode ? ((PluginNode) node).getDescription().getName() : node.getName();
+    }
+
+    /**
+     * Edges which had to be ignored to break cycles when calculating the init order.
+     */
+    List<String> getInitOrderIgnoredEdges() {
+        return describeDropped(TopologicalSort.sort(store.getCsr(), EdgeType.WORLD_LOAD, EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY));
+    }
+
+    /**
+     * Edges which had to be ignored to break cycles when calculating the enable order.
+     */
+    List<String> getEnableOrderIgnoredEdges() {
+        return describeDropped(getEnableSort());
+    }
+
+    /**
+     * Inferred references to plugins which nothing declared is sure to
+     * enable first, and whether the enable order happens to anyway.
+     */
+    List<String> getUndeclaredReferences() {
+        ReachabilityIndex declared = getReachability(EdgeType.DECLARED, false);
+        int[] order = snapshot.getEnableOrder();
+        int[] position = new int[store.getCapacity()];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+        List<String> result = new ArrayList<String>();
+        for (PluginNode node : pluginNodeMap.values()) {
+            int id = node.getId();
+            int[] children = store.getChildIds(id);
+            byte[] types = store.getChildTypes(id);
+            for (int i = 0; i < store.getChildCount(id); i++) {
+                int child = children[i];
+                if ((types[i] & EdgeType.INFERRED.getMask()) == 0 || child == id || declared.reaches(id, child)) continue;
+                result.add(node.getName() + " -> " + store.getNode(child).getName()
+                        + (position[child] < position[id] ? " (enabled first by chance)" : " (enabled after)"));
+            }
+        }
+        return result;
+    }
+
+    private List<String> describeDropped(TopologicalSort sort) {
+        List<String> result = new ArrayList<String>(sort.getDroppedCount());
+        for (int i = 0; i < sort.getDroppedCount(); i++) {
+            result.add(store.getNode(sort.getDroppedFrom(i)).getName() + " -> " + store.getNode(sort.getDroppedTo(i)).getName() + " (" + sort.getDroppedType(i) + ")");
+        }
+        return result;
     }
 
     List<String> getDependentPlugins(String name) {
         if (pluginNodeMap.containsKey(name)) {
             PluginNode node = pluginNodeMap.get(name);
-            Set<Node> deps = new HashSet<Node>();
-            deepParentDependencies(deps, node, EnumSet.of(EdgeType.DEPENDENCY));
-            deps.remove(node);
-            List<String> result = new ArrayList<String>();
-            for (Node dep : deps) {
-                result.add(((PluginNode)dep).getDescription().getName());
+            int[] deps = getReachability(EdgeType.DEPENDENCY.getMask(), true).closure(node.getId());
+            List<String> result = new ArrayList<String>(deps.length);
+            for (int dep : deps) {
+                result.add(((PluginNode)store.getNode(dep)).getDescription().getName());
             }
             return result;
         } else {
@@ -241,202 +953,357 @@ final class DependencyGraph {
         }
     }
 
-    private static void deepChildDependencies(Set<Node> result, Node node, Set<EdgeType> followTypes) {
-        if (!result.add(node)) {
-            return;
-        }
-        for (Map.Entry<Node, Set<EdgeType>> e : node.getChildEdges().entrySet()) {
-            Node child = e.getKey();
-            Set<EdgeType> types = e.getValue();
-            for (EdgeType followType : followTypes) {
-                if (types.contains(followType)) {
-                    deepChildDependencies(result, child, followTypes);
-                    break;
-                }
+    /**
+     * What each plugin failing disables through hard dependencies, for every
+     * plugin at once from the rows of one closure index.
+     */
+    BlastRadius getBlastRadius() {
+        final ReachabilityIndex dependents = getReachability(EdgeType.DEPENDENCY.getMask(), true);
+        final Map<String,Integer> counts = new HashMap<String,Integer>();
+        List<String> names = new ArrayList<String>(pluginNodeMap.size());
+        // Greedy picks by gain << 32 | id, largest first, gains only ever shrink so stale ones are checked when they come up.
+        PriorityQueue<Long> queue = new PriorityQueue<Long>(Math.max(1, pluginNodeMap.size()), Collections.<Long>reverseOrder());
+        for (PluginNode node : pluginNodeMap.values()) {
+            String name = node.getDescription().getName();
+            int count = 0;
+            for (long word : dependents.row(node.getId())) {
+                count += Long.bitCount(word);
             }
+            counts.put(name, count);
+            names.add(name);
+            queue.add((long) count << 32 | node.getId());
         }
-    }
-
-    // Used to calculate loaded plugins which depend on the passed in node.
-    private static void deepParentDependencies(Set<Node> result, Node node, Set<EdgeType> followTypes) {
-        if (!result.add(node)) {
-            return;
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int ca = counts.get(a);
+                int cb = counts.get(b);
+                return ca != cb ? (ca < cb ? 1 : -1) : a.compareTo(b);
+            }
+        });
+        Map<String,Integer> radius = new LinkedHashMap<String,Integer>();
+        for (String name : names) {
+            radius.put(name, counts.get(name));
         }
-        for (Map.Entry<Node, Set<EdgeType>> e : node.getParentEdges().entrySet()) {
-            Node child = e.getKey();
-            Set<EdgeType> types = e.getValue();
-            for (EdgeType followType : followTypes) {
-                if (types.contains(followType)) {
-                    deepChildDependencies(result, child, followTypes);
-                    break;
-                }
+        Map<String,Integer> critical = new LinkedHashMap<String,Integer>();
+        long[] covered = new long[(store.getCapacity() + 63) >>> 6];
+        while (!queue.isEmpty() && queue.peek() >>> 32 > 1) {
+            int id = (int) queue.poll().longValue();
+            long[] row = dependents.row(id);
+            int gain = 0;
+            for (int w = 0; w < row.length; w++) {
+                gain += Long.bitCount(row[w] & ~covered[w]);
+            }
+            if (!queue.isEmpty() && gain < queue.peek() >>> 32) {
+                queue.add((long) gain << 32 | id);
+                continue;
+            }
+            if (gain <= 1) {
+                break;
             }
+            for (int w = 0; w < row.length; w++) {
+                covered[w] |= row[w];
+            }
+            critical.put(getNodeName(id), gain);
         }
-        result.add(node);
+        return new BlastRadius(radius, critical);
     }
 
-    // Used to calculate load order
-    private static void depthFirstSort(Set<Node> head, Set<Node> tail, List<Node> remaining, Set<EdgeType> types) {
-        while (!remaining.isEmpty()) {
-            boolean progress = false;
-            Iterator<Node> i = remaining.iterator();
-LOOP:
-            while (i.hasNext()) {
-                Node node = i.next();
-                // Nodes with no valid child deps in head.
-                if (testEdges(head, node.getChildEdges(), types)) {
-                    head.add(node);
-                    i.remove();
-                    progress = true;
-                    continue;
-                }
-                // Nodes with no valid parent deps in tail.
-                if (testEdges(tail, node.getParentEdges(), types)) {
-                    tail.add(node);
-                    i.remove();
-                    progress = true;
-                }
-            }
-            if (!progress) {
-                break;
+    /**
+     * Strongly connected components with a cycle, each with the declarations
+     * to remove to break it.
+     */
+    List<Cycle> getCycles() {
+        return snapshot.getCycles();
+    }
+
+    /**
+     * Nodes on a cycle, or both reachable from one and reaching one.
+     */
+    private boolean[] onOrBetweenCycles(List<Cycle> cycles) {
+        int capacity = store.getCapacity();
+        int[] queue = new int[capacity];
+        int count = 0;
+        for (Cycle cycle : cycles) {
+            for (String member : cycle.getMembers()) {
+                queue[count++] = getNode(member).getId();
             }
         }
+        boolean[] below = reachable(queue, count, false);
+        boolean[] above = reachable(queue, count, true);
+        boolean[] result = new boolean[capacity];
+        for (int id = 0; id < capacity; id++) {
+            result[id] = below[id] && above[id];
+        }
+        return result;
     }
 
     /**
-     * Return true if all edges with types which intersect types are contained in done.
+     * Nodes reachable from the first count ids in sources, sources included.
      */
-    private static boolean testEdges(Set<Node> done, Map<Node, Set<EdgeType>> edges, Set<EdgeType> types) {
-        for (Map.Entry<Node, Set<EdgeType>> e : edges.entrySet()) {
-            if (!done.contains(e.getKey())) {
-                for (EdgeType type : e.getValue()) {
-                    if(types.contains(type)) {
-                        return false;
-                    }
+    private boolean[] reachable(int[] sources, int count, boolean parents) {
+        int[] queue = sources.clone();
+        boolean[] seen = new boolean[queue.length];
+        for (int i = 0; i < count; i++) {
+            seen[queue[i]] = true;
+        }
+        int tail = count;
+        for (int head = 0; head < tail; head++) {
+            int v = queue[head];
+            int[] ids = parents ? store.getParentIds(v) : store.getChildIds(v);
+            for (int i = 0; i < (parents ? store.getParentCount(v) : store.getChildCount(v)); i++) {
+                if (!seen[ids[i]]) {
+                    seen[ids[i]] = true;
+                    queue[tail++] = ids[i];
                 }
             }
         }
-        return true;
+        return seen;
+    }
+
+    private Node getNode(String displayName) {
+        return WORLD_LOAD_NAME.equals(displayName) ? worldLoad : pluginNodeMap.get(displayName);
     }
 
     public String toDot() {
-        Set<Node> nodes = new HashSet(pluginNodeMap.values());
-        nodes.add(worldLoad);
-        return toDotFile(nodes);
+        StringWriter result = new StringWriter();
+        try {
+            writeDot(result);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return result.toString();
     }
 
     public String toSimpleDot() {
-        Set<Node> nodes = new HashSet(pluginNodeMap.values());
-        return toDotFile(nodes);
+        StringWriter result = new StringWriter();
+        try {
+            writeSimpleDot(result);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return result.toString();
     }
 
     public String toCircularDot() {
-        List<Node> nodes = new ArrayList(pluginNodeMap.values());
-        nodes.add(worldLoad);
-        Set<Node> head = new LinkedHashSet<Node>();
-        Set<Node> tail = new LinkedHashSet<Node>();
-        depthFirstSort(head, tail, nodes, EnumSet.allOf(EdgeType.class));
-        Set<Node> remaining = new HashSet<Node>(nodes);
-        return toDotFile(remaining);
-    }
-
-    private static String toDotFile(Set<Node> nodes) {
-        StringBuilder result = new StringBuilder();
-        result.append("digraph PluginDeps {\n");
-        for (Node node : nodes) {
-            if (node.isSynthetic()) {
-                result.append("node [ shape = circle ] ");
-                result.append(node.getName());
-                result.append(";\n");
-            } else {
-                result.append("node [ shape = box ] ");
-                result.append(node.getName());
-                result.append(";\n");
-            }
-        }
-        result.append('\n');
-        for (Node node : nodes) {
-            for (Map.Entry<Node, Set<EdgeType>> e : node.getChildEdges().entrySet()) {
-                Node child = e.getKey();
-                if (!nodes.contains(child)) continue;
-                for (EdgeType et : e.getValue()) {
-                    result.append(node.getName());
-                    result.append(" -> ");
-                    result.append(e.getKey().getName());
-                    result.append(" [ color=");
-                    switch (et) {
-                        case DEPENDENCY:
-                            result.append("red");
-                            break;
-                        case LOAD_BEFORE:
-                            result.append("green");
-                            break;
-                        case SOFT_DEPENDENCY:
-                            result.append("yellow");
-                            break;
-                        case WORLD_LOAD:
-                            result.append("blue");
-                            break;
+        StringWriter result = new StringWriter();
+        try {
+            writeCircularDot(result);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return result.toString();
+    }
+
+    void writeDot(Writer out) throws IOException {
+        writeDot(out, null);
+    }
+
+    /**
+     * Like {@link #writeDot(Writer)}, adding notes by plugin name to the node
+     * labels.
+     */
+    void writeDot(Writer out, Map<String,String> notes) throws IOException {
+        boolean[] nodes = new boolean[store.getCapacity()];
+        for (PluginNode node : pluginNodeMap.values()) {
+            nodes[node.getId()] = true;
+        }
+        nodes[worldLoad.getId()] = true;
+        writeDotFile(out, nodes, notes, null);
+    }
+
+    void writeSimpleDot(Writer out) throws IOException {
+        boolean[] nodes = new boolean[store.getCapacity()];
+        for (PluginNode node : pluginNodeMap.values()) {
+            nodes[node.getId()] = true;
+        }
+        writeDotFile(out, nodes, null, null);
+    }
+
+    void writeCircularDot(Writer out) throws IOException {
+        List<Cycle> cycles = getCycles();
+        writeDotFile(out, onOrBetweenCycles(cycles), null, cycles);
+    }
+
+    /**
+     * Stream the subgraph of the selected node ids, out should be buffered.
+     * Each cycle given is drawn as a cluster labelled with its feedback set,
+     * the edges of which are dashed.
+     */
+    private void writeDotFile(Writer out, boolean[] nodes, Map<String,String> notes, List<Cycle> cycles) throws IOException {
+        CriticalPath criticalPath = hasEnableTimes() ? getCriticalPath() : null;
+        Set<String> onPath = criticalPath != null ? new HashSet<String>(criticalPath.getPath()) : null;
+        // Feedback edge types by from and to id.
+        Map<Long,Byte> feedback = new HashMap<Long,Byte>();
+        out.write("digraph PluginDeps {\n");
+        if (cycles != null) {
+            nodes = nodes.clone();
+            int n = 0;
+            for (Cycle cycle : cycles) {
+                out.write("subgraph cluster_");
+                out.write(Integer.toString(n++));
+                out.write(" {\nlabel = \"Cycle, remove one of each to break it:\\l");
+                for (int i = 0; i < cycle.getFeedbackCount(); i++) {
+                    out.write(cycle.describeFeedback(i).replace("\\", "\\\\").replace("\"", "\\\""));
+                    out.write("\\l");
+                    long key = ((long) getNode(cycle.getFeedbackFrom(i)).getId() << 32) | getNode(cycle.getFeedbackTo(i)).getId();
+                    Byte types = feedback.get(key);
+                    feedback.put(key, (byte) ((types == null ? 0 : types) | cycle.getFeedbackType(i).getMask()));
+                }
+                out.write("\";\n");
+                for (String member : cycle.getMembers()) {
+                    int id = getNode(member).getId();
+                    writeDotNode(out, id, notes, criticalPath, onPath);
+                    nodes[id] = false;
+                }
+                out.write("}\n");
+            }
+        }
+        for (int id = 0; id < nodes.length; id++) {
+            if (!nodes[id]) continue;
+            writeDotNode(out, id, notes, criticalPath, onPath);
+        }
+        if (cycles != null) {
+            // Put the cycle members back for the edges.
+            for (Cycle cycle : cycles) {
+                for (String member : cycle.getMembers()) {
+                    nodes[getNode(member).getId()] = true;
+                }
+            }
+        }
+        out.write('\n');
+        for (int id = 0; id < nodes.length; id++) {
+            if (!nodes[id]) continue;
+            String name = store.getNode(id).getName();
+            int[] children = store.getChildIds(id);
+            byte[] types = store.getChildTypes(id);
+            for (int i = 0; i < store.getChildCount(id); i++) {
+                if (!nodes[children[i]]) continue;
+                String childName = store.getNode(children[i]).getName();
+                for (EdgeType et : EdgeType.VALUES) {
+                    if ((types[i] & et.getMask()) == 0) continue;
+                    out.write(name);
+                    out.write(" -> ");
+                    out.write(childName);
+                    out.write(" [ color=");
+                    out.write(getColor(et));
+                    Byte dropped = feedback.get(((long) id << 32) | children[i]);
+                    if (dropped != null && (dropped & et.getMask()) != 0) {
+                        out.write(", style=dashed");
                     }
-                    result.append(" ];");
+                    out.write(" ];");
                 }
             }
         }
-        result.append("}\n");
-        return result.toString();
+        out.write("}\n");
     }
 
-    static enum EdgeType {
-        WORLD_LOAD,
-        DEPENDENCY,
-        SOFT_DEPENDENCY,
-        LOAD_BEFORE;
+    private void writeDotNode(Writer out, int id, Map<String,String> notes, CriticalPath criticalPath, Set<String> onPath) throws IOException {
+        Node node = store.getNode(id);
+        if (node.isSynthetic()) {
+            out.write("node [ shape = circle ] ");
+        } else {
+            out.write("node [ shape = box ] ");
+        }
+        out.write(node.getName());
+        String note = notes == null ? null : notes.get(getDisplayName(node));
+        if (criticalPath != null || note != null) {
+            writeLabel(out, node, criticalPath, onPath, note);
+        }
+        out.write(";\n");
     }
 
-    final static class Edge {
-        private final Node target;
-        private final Set<EdgeType> types;
-
-        public Edge(Node target, Set<EdgeType> types) {
-            this.target = target;
-            this.types = types;
+    static String getColor(EdgeType type) {
+        switch (type) {
+            case DEPENDENCY:
+                return "red";
+            case LOAD_BEFORE:
+                return "green";
+            case SOFT_DEPENDENCY:
+                return "yellow";
+            case WORLD_LOAD:
+                return "blue";
+            case INFERRED:
+                return "purple";
+            default:
+                throw new IllegalArgumentException(type.name());
         }
+    }
 
-        public Node getTarget() {
-            return target;
+    /**
+     * Label a node with its enable time and slack, drawing it bold if it is
+     * on the critical path, and with its note if it has one.
+     */
+    private void writeLabel(Writer out, Node node, CriticalPath criticalPath, Set<String> onPath, String note) throws IOException {
+        String name = getDisplayName(node);
+        out.write(" [ label = \"");
+        out.write(name);
+        if (criticalPath != null) {
+            out.write("\\n");
+            out.write(CriticalPath.millis(getEnableTime(node)));
+            Long slack = criticalPath.getSlack().get(name);
+            if (slack != null) {
+                out.write(", slack ");
+                out.write(CriticalPath.millis(slack));
+            }
         }
+        if (note != null) {
+            out.write("\\n");
+            out.write(note.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+        }
+        out.write('"');
+        if (criticalPath != null && onPath.contains(name)) {
+            out.write(", style = bold");
+        }
+        out.write(" ]");
+    }
 
-        public Set<EdgeType> getTypes() {
-            return types;
+    /**
+     * The enable order sort at one version, and the critical path over it
+     * once somebody asks for it.
+     */
+    private final static class EnableSort {
+        private final long version;
+        private final TopologicalSort sort;
+        private volatile CriticalPath criticalPath;
+
+        EnableSort(long version, TopologicalSort sort) {
+            this.version = version;
+            this.sort = sort;
         }
     }
 
-    static abstract class Node {
-        private final Map<Node,Set<EdgeType>> children = new HashMap<Node,Set<EdgeType>>();
-        private final Map<Node,Set<EdgeType>> parents = new HashMap<Node,Set<EdgeType>>();
+    final static class PendingEdge {
+        private final PluginNode source;
+        private final EdgeType type;
 
-        public Map<Node, Set<EdgeType>> getChildEdges() {
-            return children;
+        public PendingEdge(PluginNode source, EdgeType type) {
+            this.source = source;
+            this.type = type;
         }
 
-        public Map<Node, Set<EdgeType>> getParentEdges() {
-            return parents;
+        public PluginNode getSource() {
+            return source;
         }
 
-        public void addChildEdge(Node child, EdgeType type) {
-            if (children.containsKey(child)) {
-                children.get(child).add(type);
-            } else {
-                children.put(child, EnumSet.of(type));
-            }
+        public EdgeType getType() {
+            return type;
         }
+    }
 
-        public void addParentEdge(Node parent, EdgeType type) {
-            if (parents.containsKey(parent)) {
-                parents.get(parent).add(type);
-            } else {
-                parents.put(parent, EnumSet.of(type));
-            }
+    static abstract class Node {
+        private int id = -1;
+
+        /**
+         * Id of this node in the backing {@link AdjacencyStore}, set once when
+         * it is added. Snapshots share nodes, so it is kept after removal.
+         */
+        public int getId() {
+            return id;
+        }
+
+        void setId(int id) {
+            this.id = id;
         }
 
         public abstract String getName();
@@ -446,7 +1313,7 @@ LOOP:
     final static class SyntheticNode extends Node {
         @Override
         public String getName() {
-            return "__WORLD_LOAD__";
+            return WORLD_LOAD_NAME;
         }
 
         @Override
@@ -456,19 +1323,22 @@ LOOP:
     }
 
     final static class PluginNode extends Node {
-        private final PluginDescriptionFile description;
+        private final PluginDescriptor description;
+        private final String name;
 
-        public PluginNode(PluginDescriptionFile description) {
+        public PluginNode(PluginDescriptor description) {
             this.description = description;
+            // Dot identifiers can't contain '-'.
+            this.name = description.getName().replace('-', '_');
         }
 
-        public PluginDescriptionFile getDescription() {
+        public PluginDescriptor getDescription() {
             return description;
         }
 
         @Override
         public String getName() {
-            return description.getName().replace('-', '_');
+            return name;
         }
 
         @Override
@@ -0,0 +1,112 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queries on the plugin dependency graph, registered with Bukkit's
+ * ServicesManager.
+ *
+ * <pre>
+ * DependencyService deps = getServer().getServicesManager().load(DependencyService.class);
+ * </pre>
+ *
+ * Safe to call from any thread. Each call answers from the latest version
+ * of the graph, use {@link #snapshot()} to make several queries against the
+ * same version. Dependencies of a plugin are the plugins which have to be
+ * enabled before it through edges of the given types; loadbefore counts as a
+ * dependency of the named plugin on the declaring one. Returned collections
+ * are unmodifiable views which stay valid, and unchanged, after the graph
+ * moves on. Methods taking a plugin name throw IllegalStateException if the
+ * plugin is not in the graph.
+ */
+public interface DependencyService {
+
+    /**
+     * Version of the graph answering queries, incremented on every change.
+     */
+    long getVersion();
+
+    /**
+     * A service which answers every query from the current version.
+     */
+    DependencyService snapshot();
+
+    /**
+     * Names of the plugins in the graph.
+     */
+    Set<String> getPlugins();
+
+    /**
+     * Plugins the plugin directly depends on through edges of the given types.
+     */
+    List<String> getDirectDependencies(String plugin, Set<EdgeType> types);
+
+    /**
+     * Plugins the plugin transitively depends on through edges of the given
+     * types, in enable order.
+     */
+    List<String> getAllDependencies(String plugin, Set<EdgeType> types);
+
+    /**
+     * {@link #getAllDependencies(String, Set)} for several plugins, all
+     * answered from the same version of the graph.
+     */
+    Map<String,List<String>> getAllDependencies(Collection<String> plugins, Set<EdgeType> types);
+
+    /**
+     * Plugins which transitively depend on the plugin through edges of the
+     * given types, in enable order.
+     */
+    List<String> getAllDependents(String plugin, Set<EdgeType> types);
+
+    /**
+     * {@link #getAllDependents(String, Set)} for several plugins, all
+     * answered from the same version of the graph.
+     */
+    Map<String,List<String>> getAllDependents(Collection<String> plugins, Set<EdgeType> types);
+
+    /**
+     * Whether every plugin named in the plugin's depend list is present.
+     */
+    boolean dependenciesSatisfied(String plugin);
+
+    /**
+     * Why plugin has to be enabled after dependency: the shortest chain of
+     * edges of the given types from plugin to dependency, or an empty list if
+     * there is none. The chain can pass through the world loading step,
+     * which is named __WORLD_LOAD__.
+     */
+    List<Edge> explain(String plugin, String dependency, Set<EdgeType> types);
+
+    /**
+     * The order plugins are loaded in, ignoring edges needed to break cycles.
+     */
+    List<String> getInitOrder();
+
+    /**
+     * Plugins enabled before worlds are loaded, in enable order.
+     */
+    List<String> getStartupEnableOrder();
+
+    /**
+     * Plugins enabled after worlds are loaded, in enable order.
+     */
+    List<String> getPostWorldEnableOrder();
+
+    /**
+     * One step of an explanation, from has to be enabled after to.
+     */
+    interface Edge {
+        String getFrom();
+
+        String getTo();
+
+        /**
+         * Which of the requested types connect the two.
+         */
+        Set<EdgeType> getTypes();
+    }
+}
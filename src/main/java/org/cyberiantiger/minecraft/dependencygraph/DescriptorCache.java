@@ -0,0 +1,317 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import com.google.common.base.Charsets;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.plugin.InvalidDescriptionException;
+import org.bukkit.plugin.PluginLoadOrder;
+
+/**
+ * On disk cache of {@link PluginDescriptor}s read from plugin jars.
+ *
+ * Entries are keyed by the jar's absolute path and validated against its
+ * size and modification time; if those changed the jar's content hash is
+ * checked before falling back to reading plugin.yml again. Safe to use from
+ * several threads at once.
+ *
+ * The file is a header (magic, format version, entry count), the entries,
+ * and a 64 bit checksum of everything before it. It is read onto the heap in
+ * one go and written in one go to a temporary file which is renamed over
+ * the old one, so a concurrent writer can only ever replace it with another
+ * complete file, and nothing holds the old one mapped while it does. A file
+ * which fails validation is ignored and rebuilt.
+ */
+final class DescriptorCache {
+
+    private static final int MAGIC = 0x44474443; // DGDC
+    private static final int VERSION = 2;
+    private static final int HEADER = 12;
+    private static final int TRAILER = 8;
+    private static final PluginLoadOrder[] LOAD_ORDERS = PluginLoadOrder.values();
+
+    private final File file;
+    // Entries read from disk, and those looked up or added this run.
+    private final Map<String,Entry> loaded;
+    private final ConcurrentMap<String,Entry> used = new ConcurrentHashMap<String,Entry>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger rehashed = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final String loadError;
+
+    private DescriptorCache(File file, Map<String,Entry> loaded, String loadError) {
+        this.file = file;
+        this.loaded = loaded;
+        this.loadError = loadError;
+    }
+
+    /**
+     * Open a cache, a missing or invalid file gives an empty cache.
+     */
+    static DescriptorCache open(File file) {
+        if (!file.isFile()) {
+            return new DescriptorCache(file, Collections.<String,Entry>emptyMap(), null);
+        }
+        try {
+            return new DescriptorCache(file, read(file), null);
+        } catch (IOException ex) {
+            return new DescriptorCache(file, Collections.<String,Entry>emptyMap(), ex.getMessage());
+        }
+    }
+
+    /**
+     * Descriptor for a jar, from the cache if it is still valid.
+     */
+    PluginDescriptor get(File jar) throws IOException, InvalidDescriptionException {
+        String path = jar.getAbsolutePath();
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        Entry entry = loaded.get(path);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            used.put(path, entry);
+            return entry.descriptor;
+        }
+        long hash = hash(jar);
+        if (entry != null && entry.hash == hash) {
+            // Touched but not changed.
+            rehashed.incrementAndGet();
+            used.put(path, new Entry(size, lastModified, hash, entry.descriptor));
+            return entry.descriptor;
+        }
+        misses.incrementAndGet();
+        PluginDescriptor descriptor = PluginDescriptor.of(Analyzer.readDescription(jar));
+        used.put(path, new Entry(size, lastModified, hash, descriptor));
+        return descriptor;
+    }
+
+    /**
+     * Write out the entries used since the cache was opened, dropping any
+     * for jars which were not looked up.
+     */
+    void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + used.size() * 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Map.Entry<String,Entry>> entries = new ArrayList<Map.Entry<String,Entry>>(used.entrySet());
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String,Entry> e : entries) {
+            Entry entry = e.getValue();
+            PluginDescriptor descriptor = entry.descriptor;
+            writeString(out, e.getKey());
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            out.writeLong(entry.hash);
+            writeString(out, descriptor.getName());
+            writeString(out, descriptor.getVersion());
+            out.writeByte(descriptor.getLoad().ordinal());
+            writeStrings(out, descriptor.getDepend());
+            writeStrings(out, descriptor.getSoftDepend());
+            writeStrings(out, descriptor.getLoadBefore());
+        }
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        out.writeLong(hash(ByteBuffer.wrap(data), 0L));
+        out.flush();
+        data = bytes.toByteArray();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream fileOut = new FileOutputStream(tmp);
+            try {
+                fileOut.write(data);
+            } finally {
+                fileOut.close();
+            }
+            GraphWriter.replace(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    String getStatistics() {
+        StringBuilder result = new StringBuilder();
+        result.append("Descriptor cache: ");
+        result.append(hits.get()).append(" hits, ");
+        result.append(rehashed.get()).append(" unchanged after rehash, ");
+        result.append(misses.get()).append(" misses");
+        if (loadError != null) {
+            result.append(", discarded invalid cache file (").append(loadError).append(')');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Every descriptor in a cache file, in jar path order, for using a cache
+     * as a record of what a plugins directory held.
+     */
+    static List<PluginDescriptor> readDescriptors(File file) throws IOException {
+        Map<String,Entry> entries = read(file);
+        List<String> paths = new ArrayList<String>(entries.keySet());
+        Collections.sort(paths);
+        List<PluginDescriptor> result = new ArrayList<PluginDescriptor>(paths.size());
+        for (String path : paths) {
+            result.add(entries.get(path).descriptor);
+        }
+        return result;
+    }
+
+    private static Map<String,Entry> read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER + TRAILER || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad cache file length " + length);
+            }
+            ByteBuffer buffer = readFully(channel, (int) length);
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) length - TRAILER);
+            if (hash(body, 0L) != buffer.getLong((int) length - TRAILER)) {
+                throw new IOException("Cache file checksum mismatch");
+            }
+            buffer.limit((int) length - TRAILER);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown cache file format");
+            }
+            int count = buffer.getInt();
+            Map<String,Entry> result = new ConcurrentHashMap<String,Entry>(Math.max(16, count * 2));
+            try {
+                for (int i = 0; i < count; i++) {
+                    String path = readString(buffer);
+                    long size = buffer.getLong();
+                    long lastModified = buffer.getLong();
+                    long hash = buffer.getLong();
+                    String name = readString(buffer);
+                    String version = readString(buffer);
+                    int load = buffer.get() & 0xff;
+                    if (load >= LOAD_ORDERS.length) {
+                        throw new IOException("Bad load order " + load);
+                    }
+                    List<String> depend = readStrings(buffer);
+                    List<String> softDepend = readStrings(buffer);
+                    List<String> loadBefore = readStrings(buffer);
+                    result.put(path, new Entry(size, lastModified, hash,
+                            new PluginDescriptor(name, version, LOAD_ORDERS[load], depend, softDepend, loadBefore)));
+                }
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("Truncated cache file", ex);
+            }
+            return result;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The first length bytes of a file, on the heap rather than mapped, so
+     * the file can be replaced as soon as it is closed.
+     */
+    static ByteBuffer readFully(FileChannel channel, int length) throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (channel.read(result) < 0) {
+                throw new IOException("File truncated while reading");
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static List<String> readStrings(ByteBuffer buffer) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IOException("Bad list length " + count);
+        }
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(readString(buffer));
+        }
+        return result;
+    }
+
+    /**
+     * Content hash of a whole file, read through a memory mapping.
+     */
+    static long hash(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            long hash = length;
+            for (long position = 0; position < length; position += Integer.MAX_VALUE) {
+                long chunk = Math.min(Integer.MAX_VALUE, length - position);
+                hash = hash(channel.map(FileChannel.MapMode.READ_ONLY, position, chunk), hash);
+            }
+            return hash;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 64 bit hash of the remaining bytes of a buffer, eight at a time.
+     */
+    static long hash(ByteBuffer buffer, long seed) {
+        long h = seed ^ 0xcbf29ce484222325L;
+        while (buffer.remaining() >= 8) {
+            h = (h ^ buffer.getLong()) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 32;
+        }
+        while (buffer.hasRemaining()) {
+            h = (h ^ (buffer.get() & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final long hash;
+        private final PluginDescriptor descriptor;
+
+        Entry(long size, long lastModified, long hash, PluginDescriptor descriptor) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.descriptor = descriptor;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+/**
+ * Kinds of ordering constraint between plugins.
+ */
+public enum EdgeType {
+    /**
+     * Between a plugin and the loading of worlds, from its load setting.
+     */
+    WORLD_LOAD,
+    /**
+     * From depend, the dependency has to be enabled first.
+     */
+    DEPENDENCY,
+    /**
+     * From softdepend, the dependency is enabled first if present.
+     */
+    SOFT_DEPENDENCY,
+    /**
+     * From loadbefore, the declaring plugin is enabled first.
+     */
+    LOAD_BEFORE,
+    /**
+     * From the plugin's classes referring to the dependency's, found by
+     * {@link ClassScanner}. Bukkit knows nothing of it, so it takes no part
+     * in ordering or cycles.
+     */
+    INFERRED;
+
+    static final EdgeType[] VALUES = values();
+
+    /**
+     * Types declared in plugin.yml, which are what Bukkit orders by.
+     */
+    static final byte DECLARED = (byte) (WORLD_LOAD.getMask() | DEPENDENCY.getMask() | SOFT_DEPENDENCY.getMask() | LOAD_BEFORE.getMask());
+
+    byte getMask() {
+        return (byte) (1 << ordinal());
+    }
+
+    /**
+     * The type for a mask with a single bit set.
+     */
+    static EdgeType forMask(byte mask) {
+        return VALUES[Integer.numberOfTrailingZeros(mask & 0xff)];
+    }
+}
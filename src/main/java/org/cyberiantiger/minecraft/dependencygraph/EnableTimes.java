@@ -0,0 +1,98 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How long each plugin took to enable during server startup.
+ *
+ * Bukkit enables plugins one after another on the server thread and only
+ * fires an event once each has finished, so a plugin's time is the interval
+ * on the monotonic clock since the previous enable or world load event. The
+ * intervals ending in world load events are the time spent loading worlds.
+ * Plugins enabled before this one are not measured. Only used from the
+ * server thread.
+ */
+final class EnableTimes {
+
+    private final Map<String,Long> plugins;
+    private long worldLoad;
+    private long last;
+    private boolean recording;
+
+    EnableTimes() {
+        this.plugins = new LinkedHashMap<String,Long>();
+    }
+
+    /**
+     * Times which were already measured, in nanoseconds by plugin name in
+     * enable order.
+     */
+    EnableTimes(Map<String,Long> plugins, long worldLoad) {
+        this.plugins = new LinkedHashMap<String,Long>(plugins);
+        this.worldLoad = worldLoad;
+    }
+
+    private EnableTimes(EnableTimes other) {
+        this.plugins = new LinkedHashMap<String,Long>(other.plugins);
+        this.worldLoad = other.worldLoad;
+    }
+
+    /**
+     * Start measuring from now.
+     */
+    void start() {
+        last = System.nanoTime();
+        recording = true;
+    }
+
+    /**
+     * Stop measuring, once startup is complete later events are not back
+     * to back so the intervals between them mean nothing.
+     */
+    void stop() {
+        recording = false;
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    void pluginEnabled(String name) {
+        if (recording) {
+            long now = System.nanoTime();
+            plugins.put(name, now - last);
+            last = now;
+        }
+    }
+
+    void worldLoaded() {
+        if (recording) {
+            long now = System.nanoTime();
+            worldLoad += now - last;
+            last = now;
+        }
+    }
+
+    /**
+     * Enable time in nanoseconds by plugin name, in enable order.
+     */
+    Map<String,Long> getPlugins() {
+        return Collections.unmodifiableMap(plugins);
+    }
+
+    /**
+     * Time spent loading worlds in nanoseconds.
+     */
+    long getWorldLoad() {
+        return worldLoad;
+    }
+
+    /**
+     * A copy which can be handed to another thread.
+     */
+    EnableTimes copy() {
+        return new EnableTimes(this);
+    }
+}
@@ -0,0 +1,440 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.bukkit.plugin.PluginLoadOrder;
+
+/**
+ * Merges the plugin sets of many servers into one dependency graph.
+ *
+ * <pre>
+ * java -cp bukkit.jar:DependencyGraph.jar org.cyberiantiger.minecraft.dependencygraph.FleetAnalyzer \
+ *     [-o output-dir] [-c cache-file] [-j threads] [server=]plugins-dir-or-cache-file...
+ * </pre>
+ *
+ * Each server is either a plugins directory, whose jars are read through a
+ * shared descriptor cache, or a descriptor cache written by {@link Analyzer}
+ * for that server. Servers are read, and their own enable orders worked out,
+ * in parallel; every plugin and referenced name goes through one interned
+ * table so the thousands of copies of common names and declarations are
+ * shared. The merged graph has every plugin seen anywhere, with the union of
+ * its declared references.
+ *
+ * Writes fleet.dot, the merged graph with each plugin labelled by the
+ * servers which carry it and its versions, and fleet.txt, which lists version
+ * divergence, plugins declared differently on different servers, and where
+ * each server enables a plugin before one of its direct dependencies in
+ * the merged graph.
+ */
+public final class FleetAnalyzer {
+
+    private final String[] servers;
+    private final File[] sources;
+    private final DescriptorCache cache;
+    private final ConcurrentMap<String,String> names = new ConcurrentHashMap<String,String>();
+    private final ConcurrentMap<String,FleetPlugin> plugins = new ConcurrentHashMap<String,FleetPlugin>();
+    // Per server, filled in by its task.
+    private final List<List<String>> orders;
+    private final int[] pluginCounts;
+
+    private FleetAnalyzer(String[] servers, File[] sources, DescriptorCache cache) {
+        this.servers = servers;
+        this.sources = sources;
+        this.cache = cache;
+        this.orders = new ArrayList<List<String>>(Collections.<List<String>>nCopies(servers.length, null));
+        this.pluginCounts = new int[servers.length];
+    }
+
+    public static void main(String[] args) {
+        File output = new File(".");
+        File cacheFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> servers = new ArrayList<String>();
+        List<File> sources = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-o".equals(args[i]) && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else if ("-c".equals(args[i]) && i + 1 < args.length) {
+                cacheFile = new File(args[++i]);
+            } else if ("-j".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                int split = args[i].indexOf('=');
+                servers.add(split < 0 ? args[i] : args[i].substring(0, split));
+                sources.add(new File(split < 0 ? args[i] : args[i].substring(split + 1)));
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("Usage: FleetAnalyzer [-o output-dir] [-c cache-file] [-j threads] [server=]plugins-dir-or-cache-file...");
+            System.exit(1);
+        }
+        output.mkdirs();
+        if (cacheFile == null) {
+            cacheFile = new File(output, "descriptors.cache");
+        }
+        DescriptorCache cache = DescriptorCache.open(cacheFile);
+        final FleetAnalyzer analyzer = new FleetAnalyzer(servers.toArray(new String[servers.size()]), sources.toArray(new File[sources.size()]), cache);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<ServerTask> tasks = new ArrayList<ServerTask>(analyzer.servers.length);
+                    for (int i = 0; i < analyzer.servers.length; i++) {
+                        tasks.add(analyzer.new ServerTask(i));
+                    }
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        System.err.println(cache.getStatistics());
+        try {
+            cache.save();
+        } catch (IOException ex) {
+            System.err.println("Failed to write descriptor cache: " + ex.getMessage());
+        }
+        try {
+            analyzer.write(output);
+        } catch (IOException ex) {
+            System.err.println("Failed to write fleet report: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private String intern(String name) {
+        String result = names.putIfAbsent(name, name);
+        return result == null ? name : result;
+    }
+
+    private List<String> intern(List<String> list) {
+        if (list.isEmpty()) {
+            return list;
+        }
+        List<String> result = new ArrayList<String>(list.size());
+        for (String name : list) {
+            result.add(intern(name));
+        }
+        return result;
+    }
+
+    private void write(File output) throws IOException {
+        // Name order, so the merged graph and report don't depend on thread timing.
+        final Map<String,FleetPlugin> sorted = new TreeMap<String,FleetPlugin>(plugins);
+        List<PluginDescriptor> merged = new ArrayList<PluginDescriptor>(sorted.size());
+        final Map<String,String> notes = new HashMap<String,String>();
+        for (FleetPlugin plugin : sorted.values()) {
+            merged.add(plugin.merge());
+            notes.put(plugin.name, plugin.note(servers));
+        }
+        final DependencyGraph graph = new DependencyGraph(merged);
+        GraphWriter.writeAtomically(new File(output, "fleet.dot"), new GraphWriter.Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                graph.writeDot(out, notes);
+            }
+        });
+        GraphWriter.writeAtomically(new File(output, "fleet.txt"), new GraphWriter.Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                writeReport(new PrintWriter(out), graph, sorted);
+            }
+        });
+    }
+
+    private void writeReport(PrintWriter out, DependencyGraph graph, Map<String,FleetPlugin> sorted) throws IOException {
+        out.print("Servers (");
+        out.print(servers.length);
+        out.println("):");
+        for (int i = 0; i < servers.length; i++) {
+            out.print("    ");
+            out.print(servers[i]);
+            out.print(": ");
+            out.println(orders.get(i) == null ? "unreadable" : pluginCounts[i] + " plugins");
+        }
+        out.print("Plugins (");
+        out.print(sorted.size());
+        out.println("):");
+        for (FleetPlugin plugin : sorted.values()) {
+            out.print("    ");
+            out.print(plugin.name);
+            out.print(": ");
+            out.println(plugin.note(servers).replace('\n', ' '));
+        }
+        out.println("Version divergence:");
+        for (FleetPlugin plugin : sorted.values()) {
+            if (plugin.versions.size() > 1) {
+                out.print("    ");
+                out.println(plugin.name);
+                for (Map.Entry<String,BitSet> e : plugin.sorted(plugin.versions)) {
+                    out.print("        ");
+                    out.print(e.getKey());
+                    out.print(" on ");
+                    out.println(serverNames(servers, e.getValue()));
+                }
+            }
+        }
+        out.println("Conflicting declarations:");
+        for (FleetPlugin plugin : sorted.values()) {
+            if (plugin.declarations.size() > 1) {
+                out.print("    ");
+                out.println(plugin.name);
+                for (Map.Entry<Declaration,BitSet> e : plugin.sorted(plugin.declarations)) {
+                    Declaration declaration = e.getKey();
+                    out.print("        load ");
+                    out.print(declaration.load);
+                    out.print(" depend ");
+                    out.print(declaration.depend);
+                    out.print(" softdepend ");
+                    out.print(declaration.softDepend);
+                    out.print(" loadbefore ");
+                    out.print(declaration.loadBefore);
+                    out.print(" on ");
+                    out.println(serverNames(servers, e.getValue()));
+                }
+            }
+        }
+        out.println("Plugins enabled before their direct dependencies in the merged graph:");
+        // Looked up once and shared by every server carrying the plugin.
+        Map<String,List<String>> directDependencies = new HashMap<String,List<String>>();
+        for (int i = 0; i < servers.length; i++) {
+            List<String> order = orders.get(i);
+            if (order == null) continue;
+            Map<String,Integer> position = new HashMap<String,Integer>();
+            for (String name : order) {
+                position.put(name, position.size());
+            }
+            for (String name : order) {
+                List<String> dependencies = directDependencies.get(name);
+                if (dependencies == null) {
+                    dependencies = graph.directDependencies(name);
+                    directDependencies.put(name, dependencies);
+                }
+                List<String> later = new ArrayList<String>();
+                for (String dependency : dependencies) {
+                    Integer at = position.get(dependency);
+                    if (at != null && at > position.get(name)) {
+                        later.add(dependency);
+                    }
+                }
+                if (!later.isEmpty()) {
+                    out.print("    ");
+                    out.print(servers[i]);
+                    out.print(": ");
+                    out.print(name);
+                    out.print(" before ");
+                    out.println(later);
+                }
+            }
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write fleet report");
+        }
+    }
+
+    private static String serverNames(String[] servers, BitSet set) {
+        List<String> result = new ArrayList<String>(set.cardinality());
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            result.add(servers[i]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Reads one server's plugins and works out its own enable order.
+     */
+    @SuppressWarnings("serial")
+    private final class ServerTask extends RecursiveAction {
+        private final int server;
+
+        ServerTask(int server) {
+            this.server = server;
+        }
+
+        @Override
+        protected void compute() {
+            String prefix = servers[server] + ": ";
+            File source = sources[server];
+            List<PluginDescriptor> descriptors;
+            if (source.isDirectory()) {
+                List<File> jarList = Analyzer.findJars(Collections.singletonList(source));
+                File[] jars = jarList.toArray(new File[jarList.size()]);
+                PluginDescriptor[] descriptions = new PluginDescriptor[jars.length];
+                String[] errors = new String[jars.length];
+                new Analyzer.ScanTask(jars, cache, descriptions, errors, 0, jars.length).invoke();
+                descriptors = Analyzer.select(jars, descriptions, errors, prefix);
+            } else {
+                try {
+                    descriptors = DescriptorCache.readDescriptors(source);
+                } catch (IOException ex) {
+                    System.err.println(prefix + "Failed to read " + source + ": " + ex.getMessage());
+                    return;
+                }
+            }
+            List<PluginDescriptor> canonical = new ArrayList<PluginDescriptor>(descriptors.size());
+            Set<String> seen = new HashSet<String>();
+            for (PluginDescriptor description : descriptors) {
+                String name = intern(description.getName());
+                if (!seen.add(name)) {
+                    continue;
+                }
+                PluginDescriptor interned = new PluginDescriptor(name, intern(description.getVersion()), description.getLoad(),
+                        intern(description.getDepend()), intern(description.getSoftDepend()), intern(description.getLoadBefore()));
+                canonical.add(interned);
+                FleetPlugin plugin = plugins.get(name);
+                if (plugin == null) {
+                    FleetPlugin created = new FleetPlugin(name);
+                    plugin = plugins.putIfAbsent(name, created);
+                    if (plugin == null) {
+                        plugin = created;
+                    }
+                }
+                plugin.add(server, interned);
+            }
+            List<String>[] enable = new DependencyGraph(canonical).getEnableOrder();
+            List<String> order = new ArrayList<String>(enable[0].size() + enable[1].size());
+            order.addAll(enable[0]);
+            order.addAll(enable[1]);
+            pluginCounts[server] = canonical.size();
+            orders.set(server, order);
+        }
+    }
+
+    /**
+     * Everything known about one plugin name across the fleet.
+     */
+    private static final class FleetPlugin {
+        private final String name;
+        // Guarded by this.
+        private final BitSet servers = new BitSet();
+        private final Map<String,BitSet> versions = new HashMap<String,BitSet>();
+        private final Map<Declaration,BitSet> declarations = new HashMap<Declaration,BitSet>();
+
+        FleetPlugin(String name) {
+            this.name = name;
+        }
+
+        synchronized void add(int server, PluginDescriptor description) {
+            servers.set(server);
+            get(versions, description.getVersion()).set(server);
+            get(declarations, new Declaration(description)).set(server);
+        }
+
+        private static <K> BitSet get(Map<K,BitSet> map, K key) {
+            BitSet result = map.get(key);
+            if (result == null) {
+                result = new BitSet();
+                map.put(key, result);
+            }
+            return result;
+        }
+
+        /**
+         * Entries most widely used first, ties by first server using them.
+         */
+        <K> List<Map.Entry<K,BitSet>> sorted(Map<K,BitSet> map) {
+            List<Map.Entry<K,BitSet>> result = new ArrayList<Map.Entry<K,BitSet>>(map.entrySet());
+            Collections.sort(result, new Comparator<Map.Entry<K,BitSet>>() {
+                @Override
+                public int compare(Map.Entry<K,BitSet> a, Map.Entry<K,BitSet> b) {
+                    int c = b.getValue().cardinality() - a.getValue().cardinality();
+                    return c != 0 ? c : a.getValue().nextSetBit(0) - b.getValue().nextSetBit(0);
+                }
+            });
+            return result;
+        }
+
+        /**
+         * The most common version and load setting, with the union of every
+         * declared reference.
+         */
+        PluginDescriptor merge() {
+            List<Map.Entry<Declaration,BitSet>> byUse = sorted(declarations);
+            Set<String> depend = new LinkedHashSet<String>();
+            Set<String> softDepend = new LinkedHashSet<String>();
+            Set<String> loadBefore = new LinkedHashSet<String>();
+            for (Map.Entry<Declaration,BitSet> e : byUse) {
+                depend.addAll(e.getKey().depend);
+                softDepend.addAll(e.getKey().softDepend);
+                loadBefore.addAll(e.getKey().loadBefore);
+            }
+            return new PluginDescriptor(name, sorted(versions).get(0).getKey(), byUse.get(0).getKey().load,
+                    new ArrayList<String>(depend), new ArrayList<String>(softDepend), new ArrayList<String>(loadBefore));
+        }
+
+        /**
+         * How many of the fleet's servers carry the plugin and which, then
+         * its versions.
+         */
+        String note(String[] fleet) {
+            StringBuilder result = new StringBuilder();
+            result.append(servers.cardinality()).append('/').append(fleet.length).append(" servers ");
+            result.append(serverNames(fleet, servers));
+            List<Map.Entry<String,BitSet>> byUse = sorted(versions);
+            if (byUse.size() == 1) {
+                result.append("\nversion ").append(byUse.get(0).getKey());
+            } else {
+                List<String> names = new ArrayList<String>(byUse.size());
+                for (Map.Entry<String,BitSet> e : byUse) {
+                    names.add(e.getKey() + " (" + e.getValue().cardinality() + ")");
+                }
+                result.append("\nversions ").append(names);
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * How one server declares a plugin's load setting and references.
+     */
+    private static final class Declaration {
+        private final PluginLoadOrder load;
+        private final List<String> depend;
+        private final List<String> softDepend;
+        private final List<String> loadBefore;
+
+        Declaration(PluginDescriptor description) {
+            this.load = description.getLoad();
+            this.depend = description.getDepend();
+            this.softDepend = description.getSoftDepend();
+            this.loadBefore = description.getLoadBefore();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Declaration)) {
+                return false;
+            }
+            Declaration other = (Declaration) o;
+            return load == other.load && depend.equals(other.depend)
+                    && softDepend.equals(other.softDepend) && loadBefore.equals(other.loadBefore);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = load.ordinal();
+            result = 31 * result + depend.hashCode();
+            result = 31 * result + softDepend.hashCode();
+            return 31 * result + loadBefore.hashCode();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary record of a graph, to compare one boot or deploy with
+ * another; see {@link SnapshotDiff}.
+ *
+ * The file has a header (magic, format version and the time it was taken),
+ * a table of every distinct name and version, the nodes sorted by name as
+ * two indexes into that table, the edges one to a long as
+ * from &lt;&lt; 36 | to &lt;&lt; 8 | types sorted the same way, the init
+ * order and both enable orders as node indexes, and the same checksum as the
+ * {@link DescriptorCache}. It is built in memory and written in one go, and
+ * read back in one go onto the heap. Nothing keeps the file mapped, so it can
+ * be replaced straight after it is read, even on Windows.
+ */
+final class GraphFile {
+
+    private static final int MAGIC = 0x4447534e; // DGSN
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int TRAILER = 8;
+    private static final int INDEX_BITS = 28;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    private final long time;
+    private final String[] names;
+    private final String[] versions;
+    private final long[] edges;
+    private final int[] initOrder;
+    private final int[] startupOrder;
+    private final int[] postworldOrder;
+
+    private GraphFile(long time, String[] names, String[] versions, long[] edges, int[] initOrder, int[] startupOrder, int[] postworldOrder) {
+        this.time = time;
+        this.names = names;
+        this.versions = versions;
+        this.edges = edges;
+        this.initOrder = initOrder;
+        this.startupOrder = startupOrder;
+        this.postworldOrder = postworldOrder;
+    }
+
+    /**
+     * Take a snapshot of a graph, which should not change while it is taken.
+     */
+    static GraphFile of(DependencyGraph graph, long time) {
+        Map<String,String> versionMap = new HashMap<String,String>();
+        for (PluginDescriptor description : graph.getDescriptions()) {
+            versionMap.put(description.getName(), description.getVersion());
+        }
+        versionMap.put(DependencyGraph.WORLD_LOAD_NAME, "");
+        String[] names = versionMap.keySet().toArray(new String[versionMap.size()]);
+        Arrays.sort(names);
+        if (names.length > INDEX_MASK) {
+            throw new IllegalArgumentException("Too many plugins for a snapshot: " + names.length);
+        }
+        String[] versions = new String[names.length];
+        Map<String,Integer> index = new HashMap<String,Integer>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            versions[i] = versionMap.get(names[i]);
+            index.put(names[i], i);
+        }
+        AdjacencyStore.Csr csr = graph.getCsr();
+        int[] byId = new int[csr.nodeCount];
+        Arrays.fill(byId, -1);
+        long[] edges = new long[csr.edgeCount];
+        for (int e = 0; e < csr.edgeCount; e++) {
+            edges[e] = pack(indexOf(graph, index, byId, csr.from[e]), indexOf(graph, index, byId, csr.to[e]), csr.types[e]);
+        }
+        Arrays.sort(edges);
+        List<String>[] enableOrder = graph.getEnableOrder();
+        return new GraphFile(time, names, versions, edges,
+                indexes(index, graph.getInitOrder()), indexes(index, enableOrder[0]), indexes(index, enableOrder[1]));
+    }
+
+    private static int indexOf(DependencyGraph graph, Map<String,Integer> index, int[] byId, int id) {
+        if (byId[id] < 0) {
+            byId[id] = index.get(graph.getNodeName(id));
+        }
+        return byId[id];
+    }
+
+    private static int[] indexes(Map<String,Integer> index, List<String> order) {
+        int[] result = new int[order.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = index.get(order.get(i));
+        }
+        return result;
+    }
+
+    static long pack(int from, int to, byte types) {
+        return (long) from << (INDEX_BITS + 8) | (long) to << 8 | types & 0xff;
+    }
+
+    static int from(long edge) {
+        return (int) (edge >>> (INDEX_BITS + 8));
+    }
+
+    static int to(long edge) {
+        return (int) (edge >>> 8) & INDEX_MASK;
+    }
+
+    static byte types(long edge) {
+        return (byte) edge;
+    }
+
+    /**
+     * When the snapshot was taken, in milliseconds since the epoch.
+     */
+    long getTime() {
+        return time;
+    }
+
+    /**
+     * Node names in sorted order, including __WORLD_LOAD__. The array must
+     * not be changed.
+     */
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Plugin versions by node index, empty where there is none. The array
+     * must not be changed.
+     */
+    String[] getVersions() {
+        return versions;
+    }
+
+    /**
+     * Packed edges in sorted order, see {@link #from}, {@link #to} and
+     * {@link #types}. The array must not be changed.
+     */
+    long[] getEdges() {
+        return edges;
+    }
+
+    int[] getInitOrder() {
+        return initOrder;
+    }
+
+    int[] getStartupOrder() {
+        return startupOrder;
+    }
+
+    int[] getPostworldOrder() {
+        return postworldOrder;
+    }
+
+    void write(File file) throws IOException {
+        Map<String,Integer> strings = new HashMap<String,Integer>(names.length * 2);
+        List<String> table = new ArrayList<String>(names.length);
+        int[] nameIndex = new int[names.length];
+        int[] versionIndex = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nameIndex[i] = intern(strings, table, names[i]);
+            versionIndex[i] = intern(strings, table, versions[i]);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER + TRAILER + names.length * 32 + edges.length * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(time);
+        DescriptorCache.writeStrings(out, table);
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeInt(nameIndex[i]);
+            out.writeInt(versionIndex[i]);
+        }
+        out.writeInt(edges.length);
+        for (long edge : edges) {
+            out.writeLong(edge);
+        }
+        writeOrder(out, initOrder);
+        writeOrder(out, startupOrder);
+        writeOrder(out, postworldOrder);
+        out.flush();
+        byte[] data = bytes.toByteArray();
+        out.writeLong(DescriptorCache.hash(ByteBuffer.wrap(data), 0L));
+        out.flush();
+        data = bytes.toByteArray();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            OutputStream fileOut = new FileOutputStream(tmp);
+            try {
+                fileOut.write(data);
+            } finally {
+                fileOut.close();
+            }
+            GraphWriter.replace(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static int intern(Map<String,Integer> strings, List<String> table, String s) {
+        Integer result = strings.get(s);
+        if (result == null) {
+            result = table.size();
+            strings.put(s, result);
+            table.add(s);
+        }
+        return result;
+    }
+
+    private static void writeOrder(DataOutputStream out, int[] order) throws IOException {
+        out.writeInt(order.length);
+        for (int i : order) {
+            out.writeInt(i);
+        }
+    }
+
+    static GraphFile read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER + TRAILER || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad snapshot file length " + length);
+            }
+            ByteBuffer buffer = DescriptorCache.readFully(channel, (int) length);
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) length - TRAILER);
+            if (DescriptorCache.hash(body, 0L) != buffer.getLong((int) length - TRAILER)) {
+                throw new IOException("Snapshot file checksum mismatch");
+            }
+            buffer.limit((int) length - TRAILER);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Unknown snapshot file format");
+            }
+            try {
+                long time = buffer.getLong();
+                List<String> table = DescriptorCache.readStrings(buffer);
+                int count = readCount(buffer, 8);
+                String[] names = new String[count];
+                String[] versions = new String[count];
+                for (int i = 0; i < count; i++) {
+                    names[i] = table.get(readIndex(buffer, table.size()));
+                    versions[i] = table.get(readIndex(buffer, table.size()));
+                }
+                long[] edges = new long[readCount(buffer, 8)];
+                for (int i = 0; i < edges.length; i++) {
+                    edges[i] = buffer.getLong();
+                    if (from(edges[i]) >= count || to(edges[i]) >= count) {
+                        throw new IOException("Bad edge in snapshot file");
+                    }
+                }
+                return new GraphFile(time, names, versions, edges,
+                        readOrder(buffer, count), readOrder(buffer, count), readOrder(buffer, count));
+            } catch (BufferUnderflowException ex) {
+                throw new IOException("Truncated snapshot file", ex);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static int readCount(ByteBuffer buffer, int size) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / size) {
+            throw new IOException("Bad count " + count + " in snapshot file");
+        }
+        return count;
+    }
+
+    private static int readIndex(ByteBuffer buffer, int limit) throws IOException {
+        int index = buffer.getInt();
+        if (index < 0 || index >= limit) {
+            throw new IOException("Bad index " + index + " in snapshot file");
+        }
+        return index;
+    }
+
+    private static int[] readOrder(ByteBuffer buffer, int limit) throws IOException {
+        int[] result = new int[readCount(buffer, 4)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readIndex(buffer, limit);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Immutable view of a {@link DependencyGraph} at one version, safe to use
+ * from any thread without locking.
+ *
+ * A snapshot holds a frozen copy of the graph's {@link AdjacencyStore},
+ * which shares each node's edge arrays with the graph until the graph next
+ * changes them, along with the orders and cycles the graph's incremental
+ * indexes had at that version and copies of its closure indexes. Nothing is
+ * rebuilt to read it; closure indexes the graph did not have, and feedback
+ * sets for cycles which changed, are built on first use and taken over by
+ * the graph when it next changes. Results
+ * derived from a snapshot can be cached against {@link #getVersion()}.
+ */
+final class GraphSnapshot {
+
+    // Closure index slots, by edge type mask with 32 added for the parent direction.
+    static final int SLOTS = 64;
+
+    private final long version;
+    private final AdjacencyStore store;
+    private final EnableTimes enableTimes;
+    private final int[] initOrder;
+    private final int[] enableOrder;
+    private final CycleIndex.Cycles cycles;
+    // Only ever set once built, so it can be queried from several threads.
+    private final AtomicReferenceArray<ReachabilityIndex> reachability;
+    private volatile DependencyGraph graph;
+
+    GraphSnapshot(long version, AdjacencyStore store, EnableTimes enableTimes, int[] initOrder, int[] enableOrder, CycleIndex.Cycles cycles, ReachabilityIndex[] reachability) {
+        this.version = version;
+        this.store = store;
+        this.enableTimes = enableTimes;
+        this.initOrder = initOrder;
+        this.enableOrder = enableOrder;
+        this.cycles = cycles;
+        this.reachability = new AtomicReferenceArray<ReachabilityIndex>(reachability);
+    }
+
+    static int slot(byte mask, boolean parents) {
+        return (parents ? 32 : 0) | mask;
+    }
+
+    /**
+     * Incremented every time the graph changes.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    AdjacencyStore getStore() {
+        return store;
+    }
+
+    /**
+     * Measured enable times, or null if there are none.
+     */
+    EnableTimes getEnableTimes() {
+        return enableTimes;
+    }
+
+    /**
+     * Node ids in init order, the array must not be changed.
+     */
+    int[] getInitOrder() {
+        return initOrder;
+    }
+
+    /**
+     * Node ids in enable order, the array must not be changed.
+     */
+    int[] getEnableOrder() {
+        return enableOrder;
+    }
+
+    /**
+     * Cycles with their feedback sets, found on first use for any which
+     * changed since the last snapshot somebody read them from.
+     */
+    List<Cycle> getCycles() {
+        return cycles.get();
+    }
+
+    /**
+     * The cycles, whether or not they have been read yet.
+     */
+    CycleIndex.Cycles peekCycles() {
+        return cycles;
+    }
+
+    /**
+     * Closure index for a set of edge types and a direction, built on first
+     * use unless the graph handed one over.
+     */
+    ReachabilityIndex getReachability(byte mask, boolean parents) {
+        int slot = slot(mask, parents);
+        ReachabilityIndex result = reachability.get(slot);
+        if (result == null) {
+            // Threads racing here each build an identical index, any will do.
+            result = new ReachabilityIndex(store, mask, parents);
+            result.build();
+            reachability.set(slot, result);
+        }
+        return result;
+    }
+
+    /**
+     * Closure index in a slot if there is one yet, without building it.
+     */
+    ReachabilityIndex peekReachability(int slot) {
+        return reachability.get(slot);
+    }
+
+    /**
+     * The graph at this version, which can not be modified. Made on first
+     * use, it reads the snapshot's state rather than rebuilding any.
+     */
+    DependencyGraph getGraph() {
+        DependencyGraph result = graph;
+        if (result == null) {
+            // Threads racing here each make an equivalent graph, any will do.
+            result = new DependencyGraph(this);
+            graph = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,509 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import com.google.common.base.Charsets;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Writes the dependency graph outputs on a background thread.
+ *
+ * Plugin events only mark the graph dirty, the writer waits until no further
+ * changes have arrived for the quiet period, then renders and writes
+ * everything from the latest {@link GraphSnapshot} unless that version has
+ * already been written.
+ */
+final class GraphWriter implements Runnable {
+
+    private static final long CLOSE_TIMEOUT = 5000L;
+
+    private final Main plugin;
+    private final long quietPeriod;
+    private final Object lock = new Object();
+    private final Thread thread;
+    // Hash of what was last written to each file, only touched by whichever
+    // thread is writing.
+    private final Map<String,Long> hashes = new HashMap<String,Long>();
+    private long writtenVersion = -1L;
+    // All guarded by lock.
+    private boolean dirty;
+    private boolean writing;
+    private boolean closed;
+    private long lastChange;
+
+    GraphWriter(Main plugin, long quietPeriod, TimeUnit unit) {
+        this.plugin = plugin;
+        this.quietPeriod = unit.toNanos(quietPeriod);
+        this.thread = new Thread(this, "DependencyGraph writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Note that the graph has changed, called from the server thread.
+     */
+    void markDirty() {
+        synchronized (lock) {
+            dirty = true;
+            lastChange = System.nanoTime();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the background thread, writing any outstanding changes from the
+     * calling thread, which must be the server thread. If the background
+     * thread is still writing after the timeout the outstanding changes are
+     * dropped rather than written from two threads at once.
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        thread.interrupt();
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            plugin.getLogger().warning("Dependency graph writer did not stop in time, not writing outstanding changes");
+            return;
+        }
+        boolean flush;
+        synchronized (lock) {
+            flush = dirty || writing;
+            dirty = false;
+        }
+        if (flush) {
+            write(plugin.getSnapshot());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                try {
+                    while (!dirty && !closed) {
+                        lock.wait();
+                    }
+                    long wait;
+                    while (!closed && (wait = lastChange + quietPeriod - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(lock, wait);
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+                dirty = false;
+                writing = true;
+            }
+            write(plugin.getSnapshot());
+            synchronized (lock) {
+                writing = false;
+            }
+        }
+    }
+
+    private void write(GraphSnapshot snapshot) {
+        if (snapshot.getVersion() == writtenVersion) {
+            return;
+        }
+        try {
+            writeGraphs(plugin.getDataFolder(), snapshot.getGraph(), hashes);
+            writtenVersion = snapshot.getVersion();
+        } catch (IOException ex) {
+            plugin.getLogger().log(Level.INFO, "Failed to write dependency graph", ex);
+        }
+    }
+
+    static void writeGraphs(File dataFolder, DependencyGraph graph, Map<String,Long> hashes) throws IOException {
+        long start = System.nanoTime();
+        try {
+            writeAll(dataFolder, graph, hashes);
+        } finally {
+            Metrics.WRITE_GRAPHS.record(System.nanoTime() - start);
+        }
+    }
+
+    private static void writeAll(File dataFolder, final DependencyGraph graph, Map<String,Long> hashes) throws IOException {
+        writeIfChanged(new File(dataFolder, "plugins.dot"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                graph.writeDot(out);
+            }
+        });
+        writeIfChanged(new File(dataFolder, "plugins_simple.dot"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                graph.writeSimpleDot(out);
+            }
+        });
+        writeIfChanged(new File(dataFolder, "plugins_circular.dot"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                graph.writeCircularDot(out);
+            }
+        });
+        writeIfChanged(new File(dataFolder, "plugins.svg"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                SvgRenderer.write(out, graph);
+            }
+        });
+        writeIfChanged(new File(dataFolder, "load_orders.txt"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                writeLoadOrders(new PrintWriter(out), graph);
+            }
+        });
+        final BlastRadius blastRadius = graph.getBlastRadius();
+        writeIfChanged(new File(dataFolder, "blast_radius.txt"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                writeBlastRadius(new PrintWriter(out), blastRadius);
+            }
+        });
+        writeIfChanged(new File(dataFolder, "blast_radius.dot"), hashes, new Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                Map<String,String> notes = new HashMap<String,String>();
+                for (Map.Entry<String,Integer> e : blastRadius.getRadius().entrySet()) {
+                    if (e.getValue() > 1) {
+                        notes.put(e.getKey(), "disables " + e.getValue());
+                    }
+                }
+                int rank = 1;
+                for (String name : blastRadius.getCritical().keySet()) {
+                    notes.put(name, notes.get(name) + ", critical #" + rank++);
+                }
+                graph.writeDot(out, notes);
+            }
+        });
+        if (graph.hasEnableTimes()) {
+            writeIfChanged(new File(dataFolder, "startup_times.txt"), hashes, new Output() {
+                @Override
+                public void write(Writer out) throws IOException {
+                    writeStartupTimes(new PrintWriter(out), graph.getCriticalPath());
+                }
+            });
+        }
+    }
+
+    private static void writeLoadOrders(PrintWriter out, DependencyGraph graph) throws IOException {
+        out.println("Init order:");
+        for (String s : graph.getInitOrder()) {
+            out.print("    ");
+            out.println(s);
+        }
+        out.println("Startup enable order:");
+        List<String>[] enableOrders = graph.getEnableOrder();
+        for (String s : enableOrders[0]) {
+            out.print("    ");
+            out.println(s);
+        }
+        out.println("Postworld enable order:");
+        for (String s : enableOrders[1]) {
+            out.print("    ");
+            out.println(s);
+        }
+        Wavefronts[] wavefronts = graph.getEnableWavefronts();
+        writeWavefronts(out, "Startup", wavefronts[0]);
+        writeWavefronts(out, "Postworld", wavefronts[1]);
+        out.println("Edges ignored to break cycles in init order:");
+        for (String s : graph.getInitOrderIgnoredEdges()) {
+            out.print("    ");
+            out.println(s);
+        }
+        out.println("Edges ignored to break cycles in enable order:");
+        for (String s : graph.getEnableOrderIgnoredEdges()) {
+            out.print("    ");
+            out.println(s);
+        }
+        out.println("Cycles, and the declarations to remove to break each:");
+        for (Cycle cycle : graph.getCycles()) {
+            out.print("    ");
+            out.println(cycle.getMembers());
+            for (int i = 0; i < cycle.getFeedbackCount(); i++) {
+                out.print("        ");
+                out.println(cycle.describeFeedback(i));
+            }
+        }
+        out.println("Missing dependencies:");
+        for (String missing : graph.getUnresolvedNames()) {
+            List<String> requiredBy = graph.getUnresolvedReferences(missing, EdgeType.DEPENDENCY);
+            if (!requiredBy.isEmpty()) {
+                out.print("    ");
+                out.print(missing);
+                out.print(" required by ");
+                out.println(requiredBy);
+            }
+        }
+        List<String> undeclared = graph.getUndeclaredReferences();
+        if (!undeclared.isEmpty()) {
+            out.println("Classes used without depend or softdepend:");
+            for (String s : undeclared) {
+                out.print("    ");
+                out.println(s);
+            }
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write load orders");
+        }
+    }
+
+    private static void writeBlastRadius(PrintWriter out, BlastRadius blastRadius) throws IOException {
+        out.println("Fewest plugins whose failure disables the most:");
+        int total = 0;
+        for (Map.Entry<String,Integer> e : blastRadius.getCritical().entrySet()) {
+            total += e.getValue();
+            out.print("    ");
+            out.print(e.getKey());
+            out.print(" +");
+            out.print(e.getValue());
+            out.print(" (");
+            out.print(total);
+            out.println(" total)");
+        }
+        out.println("Plugins disabled by each plugin failing, including itself:");
+        for (Map.Entry<String,Integer> e : blastRadius.getRadius().entrySet()) {
+            out.print("    ");
+            out.print(e.getKey());
+            out.print(' ');
+            out.println(e.getValue());
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write blast radius");
+        }
+    }
+
+    private static void writeWavefronts(PrintWriter out, String phase, Wavefronts wavefronts) {
+        out.print(phase);
+        out.print(" enable wavefronts (max parallelism ");
+        out.print(wavefronts.getMaxParallelism());
+        out.println("):");
+        int i = 1;
+        for (List<String> layer : wavefronts.getLayers()) {
+            out.print("    ");
+            out.print(i++);
+            out.print(" (");
+            out.print(layer.size());
+            out.print("): ");
+            out.println(layer);
+        }
+        out.print("    Longest chain (");
+        out.print(wavefronts.getLongestChain().size());
+        out.print("): ");
+        out.println(wavefronts.getLongestChain());
+    }
+
+    private static void writeStartupTimes(PrintWriter out, final CriticalPath criticalPath) throws IOException {
+        out.print("Critical path (");
+        out.print(CriticalPath.millis(criticalPath.getLength()));
+        out.println("):");
+        for (String s : criticalPath.getPath()) {
+            out.print("    ");
+            out.println(s);
+        }
+        out.println("Enable times, slowest first (slack):");
+        List<String> plugins = new ArrayList<String>(criticalPath.getEnableTimes().keySet());
+        Collections.sort(plugins, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                long ta = criticalPath.getEnableTimes().get(a);
+                long tb = criticalPath.getEnableTimes().get(b);
+                return ta < tb ? 1 : ta > tb ? -1 : 0;
+            }
+        });
+        for (String s : plugins) {
+            out.print("    ");
+            out.print(s);
+            out.print(' ');
+            out.print(CriticalPath.millis(criticalPath.getEnableTimes().get(s)));
+            out.print(" (");
+            out.print(CriticalPath.millis(criticalPath.getSlack().get(s)));
+            out.println(')');
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write startup times");
+        }
+    }
+
+    /**
+     * Hash the output without writing it anywhere, and only write it to the
+     * file, as {@link #writeAtomically} does, if the hash differs from the
+     * one recorded for the file (or the file is missing). A changed output
+     * is rendered twice, an unchanged one never touches the disk. Pass null
+     * hashes to always write.
+     */
+    static void writeIfChanged(File file, Map<String,Long> hashes, Output output) throws IOException {
+        if (hashes == null) {
+            writeAtomically(file, output);
+            return;
+        }
+        ContentHash hash = new ContentHash(new Discard());
+        output.write(hash);
+        Long previous = hashes.get(file.getName());
+        if (previous != null && previous == hash.getHash() && file.isFile()) {
+            Metrics.FILES_UNCHANGED.incrementAndGet();
+            return;
+        }
+        hashes.put(file.getName(), writeAtomically(file, output));
+    }
+
+    /**
+     * Write to a temporary file in the same directory then rename it over the
+     * target, so readers never see a partially written file. Returns the
+     * hash of what was written.
+     */
+    static long writeAtomically(File file, Output output) throws IOException {
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            long hash = writeTemp(tmp, output);
+            replace(tmp, file);
+            return hash;
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Write the output to tmp as UTF-8, returning the hash of what was
+     * written.
+     */
+    private static long writeTemp(File tmp, Output output) throws IOException {
+        ContentHash out = new ContentHash(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), Charsets.UTF_8)));
+        try {
+            output.write(out);
+        } finally {
+            out.close();
+        }
+        return out.getHash();
+    }
+
+    /**
+     * Atomically replace file with tmp where the filesystem allows it. Every
+     * file the plugin writes comes through here, so this is where they are
+     * counted.
+     */
+    static void replace(File tmp, File file) throws IOException {
+        long length = tmp.length();
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Metrics.FILES_WRITTEN.incrementAndGet();
+        Metrics.BYTES_WRITTEN.addAndGet(length);
+    }
+
+    /**
+     * Something which can be streamed to a file.
+     */
+    interface Output {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Writer which throws away everything written to it.
+     */
+    private static final class Discard extends Writer {
+        @Override
+        public void write(int c) {
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Writer which keeps a 64 bit FNV-1a hash of everything written through
+     * it to another writer.
+     */
+    static final class ContentHash extends Writer {
+        private final Writer out;
+        private long hash = 0xcbf29ce484222325L;
+
+        ContentHash(Writer out) {
+            this.out = out;
+        }
+
+        long getHash() {
+            return hash;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            hash = (hash ^ (c & 0xffff)) * 0x100000001b3L;
+            out.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            long h = hash;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ cbuf[i]) * 0x100000001b3L;
+            }
+            hash = h;
+            out.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            long h = hash;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ str.charAt(i)) * 0x100000001b3L;
+            }
+            hash = h;
+            out.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram which any number of threads can record into without
+ * locking or allocating.
+ *
+ * Values below 8 have a bucket each, above that every power of two is split
+ * into 8 buckets, so a percentile is reported to within an eighth of its
+ * value. Reads are not a consistent snapshot of concurrent writes, which
+ * only matters to within a value or two.
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value, negative values count as 0.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getTotal() {
+        return total.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The value at or below which the fraction q of recorded values are,
+     * rounded up to the top of its bucket, or 0 if nothing was recorded.
+     */
+    long getPercentile(double q) {
+        long target = (long) Math.ceil(q * count.get());
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target && seen > 0) {
+                return Math.min(lowest(i + 1) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BITS + 1) << SUB_BITS | (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+    }
+
+    private static long lowest(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        if (bucket >= BUCKETS) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (bucket >>> SUB_BITS) + SUB_BITS - 1;
+        return (long) (SUB_COUNT | bucket & (SUB_COUNT - 1)) << (exponent - SUB_BITS);
+    }
+}
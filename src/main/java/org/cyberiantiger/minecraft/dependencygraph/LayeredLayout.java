@@ -0,0 +1,524 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sugiyama style layered layout of a subgraph of an {@link AdjacencyStore.Csr}.
+ *
+ * Nodes are put in layers by longest path over the edges a
+ * {@link TopologicalSort} kept, so every kept edge points down the page;
+ * edges it dropped are drawn pointing up. Edges spanning several layers get
+ * a dummy vertex in each layer they cross, shared by all edges of the same
+ * types into the same node from the same side, so edges into a popular node
+ * merge into one trunk the way dot's concentrate does and the number of
+ * dummies stays close to the number of edges. The order within each layer comes
+ * from alternating barycenter sweeps, keeping the order with the fewest
+ * crossings. Horizontal positions are then pulled towards the mean of each
+ * vertex's neighbours, one layer at a time, with overlaps resolved by
+ * weighted isotonic regression so the order is kept and nodes end up as
+ * close to where they want to be as the spacing allows.
+ */
+final class LayeredLayout {
+
+    private static final double NODE_SEP = 16;
+    private static final double RANK_SEP = 48;
+    private static final double MARGIN = 8;
+    private static final int ORDER_PASSES = 16;
+    private static final int ORDER_PATIENCE = 4;
+    private static final int PLACE_PASSES = 8;
+    // Dummies pull harder so long edges come out straight.
+    private static final double DUMMY_WEIGHT = 4;
+
+    private final AdjacencyStore.Csr csr;
+    private final double[] nodeHeight;
+    // Vertices are node ids, then dummies from csr.nodeCount.
+    private int vertexCount;
+    private int[] rank;
+    private double[] width;
+    private double[] x;
+    private int[][] layers;
+    private int[] position;
+    // Segments join a vertex to one in the next layer down.
+    private int segmentCount;
+    private int[] segmentUpper;
+    private int[] segmentLower;
+    private int[] upStart;
+    private int[] up;
+    private int[] downStart;
+    private int[] down;
+    // Dummies of each edge from its tail to its head, one per layer crossed,
+    // starting at pathStart, which is -1 if the edge is not drawn.
+    private int[] pathStart;
+    private int[] path;
+    private double[] rankY;
+    private double totalWidth;
+    private double totalHeight;
+
+    private LayeredLayout(AdjacencyStore.Csr csr, double[] nodeHeight) {
+        this.csr = csr;
+        this.nodeHeight = nodeHeight;
+    }
+
+    /**
+     * Lay out the selected nodes, with the given sizes by node id.
+     *
+     * @param sort decides which edges point down
+     */
+    static LayeredLayout layout(AdjacencyStore.Csr csr, TopologicalSort sort, boolean[] nodes, double[] nodeWidth, double[] nodeHeight) {
+        LayeredLayout result = new LayeredLayout(csr, nodeHeight);
+        result.assignRanks(sort, nodes);
+        result.addDummies(nodes, nodeWidth);
+        result.order();
+        result.place();
+        return result;
+    }
+
+    double getWidth() {
+        return totalWidth;
+    }
+
+    double getHeight() {
+        return totalHeight;
+    }
+
+    /**
+     * Center of a node.
+     */
+    double getX(int id) {
+        return x[id];
+    }
+
+    double getY(int id) {
+        return rankY[rank[id]];
+    }
+
+    /**
+     * Points an edge passes through as x, y pairs, from the boundary of its
+     * tail node to the boundary of its head, or null if it is not drawn.
+     * Edges within a layer get a point above the layer to arc through.
+     */
+    double[] getRoute(int e) {
+        if (pathStart[e] < 0) {
+            return null;
+        }
+        int from = csr.from[e];
+        int to = csr.to[e];
+        double[] result;
+        if (rank[from] == rank[to]) {
+            double top = rankY[rank[from]] - maxHalfHeight(rank[from]);
+            result = new double[] {
+                x[from], getY(from) - nodeHeight[from] / 2,
+                (x[from] + x[to]) / 2, top - RANK_SEP / 2,
+                x[to], getY(to) - nodeHeight[to] / 2
+            };
+            return result;
+        }
+        double sign = rank[from] < rank[to] ? 1 : -1;
+        int dummies = Math.abs(rank[from] - rank[to]) - 1;
+        result = new double[4 + 2 * dummies];
+        result[0] = x[from];
+        result[1] = getY(from) + sign * nodeHeight[from] / 2;
+        for (int i = 0; i < dummies; i++) {
+            int d = path[pathStart[e] + i];
+            result[2 + 2 * i] = x[d];
+            result[3 + 2 * i] = rankY[rank[d]];
+        }
+        result[result.length - 2] = x[to];
+        result[result.length - 1] = getY(to) - sign * nodeHeight[to] / 2;
+        return result;
+    }
+
+    /**
+     * Longest path from the bottom, so a node sits just above the highest of
+     * what it points at, then flipped so rank 0 is the top.
+     */
+    private void assignRanks(TopologicalSort sort, boolean[] nodes) {
+        int[] layer = new int[csr.nodeCount];
+        int maxLayer = 0;
+        for (int v : sort.getOrder()) {
+            if (!nodes[v]) continue;
+            for (int e = csr.outStart[v]; e < csr.outStart[v + 1]; e++) {
+                int w = csr.to[e];
+                if (sort.getActiveTypes(e) != 0 && w != v && nodes[w] && layer[w] + 1 > layer[v]) {
+                    layer[v] = layer[w] + 1;
+                }
+            }
+            maxLayer = Math.max(maxLayer, layer[v]);
+        }
+        rank = new int[csr.nodeCount];
+        for (int v = 0; v < csr.nodeCount; v++) {
+            rank[v] = maxLayer - layer[v];
+        }
+        rankY = new double[maxLayer + 1];
+    }
+
+    private void addDummies(boolean[] nodes, double[] nodeWidth) {
+        int edgeCount = csr.edgeCount;
+        pathStart = new int[edgeCount];
+        Arrays.fill(pathStart, -1);
+        path = new int[16];
+        int pathSize = 0;
+        vertexCount = csr.nodeCount;
+        segmentUpper = new int[Math.max(16, edgeCount)];
+        segmentLower = new int[segmentUpper.length];
+        // Dummy in each rank on the way into the current node, by side and types.
+        Map<Integer,int[]> trunks = new HashMap<Integer,int[]>();
+        for (int to = 0; to < csr.nodeCount; to++) {
+            if (!nodes[to]) continue;
+            trunks.clear();
+            for (int i = csr.inStart[to]; i < csr.inStart[to + 1]; i++) {
+                int e = csr.inEdge[i];
+                int from = csr.from[e];
+                if (!nodes[from] || from == to) {
+                    continue;
+                }
+                pathStart[e] = pathSize;
+                if (rank[from] == rank[to]) {
+                    continue;
+                }
+                int step = rank[from] < rank[to] ? 1 : -1;
+                Integer key = (csr.types[e] & 0xff) | (step > 0 ? 0x100 : 0);
+                int[] trunk = trunks.get(key);
+                if (trunk == null) {
+                    trunk = new int[rankY.length];
+                    Arrays.fill(trunk, -1);
+                    trunks.put(key, trunk);
+                }
+                int previous = from;
+                // Once on an existing trunk the rest of it already leads to the node.
+                boolean joined = false;
+                for (int r = rank[from] + step; r != rank[to]; r += step) {
+                    int d = trunk[r];
+                    if (d == -1) {
+                        d = trunk[r] = addVertex(r);
+                        addSegment(previous, d);
+                    } else if (!joined) {
+                        addSegment(previous, d);
+                        joined = true;
+                    }
+                    if (pathSize == path.length) {
+                        path = Arrays.copyOf(path, pathSize * 2);
+                    }
+                    path[pathSize++] = d;
+                    previous = d;
+                }
+                if (!joined) {
+                    addSegment(previous, to);
+                }
+            }
+        }
+        width = new double[vertexCount];
+        System.arraycopy(nodeWidth, 0, width, 0, csr.nodeCount);
+        // Vertex lists by rank, real nodes in id order then dummies as created.
+        int[] rankSize = new int[rankY.length];
+        for (int v = 0; v < vertexCount; v++) {
+            if (v < csr.nodeCount && !nodes[v]) continue;
+            rankSize[rank[v]]++;
+        }
+        layers = new int[rankY.length][];
+        for (int r = 0; r < layers.length; r++) {
+            layers[r] = new int[rankSize[r]];
+            rankSize[r] = 0;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            if (v < csr.nodeCount && !nodes[v]) continue;
+            layers[rank[v]][rankSize[rank[v]]++] = v;
+        }
+        position = new int[vertexCount];
+        for (int[] layer : layers) {
+            for (int i = 0; i < layer.length; i++) {
+                position[layer[i]] = i;
+            }
+        }
+        upStart = new int[vertexCount + 1];
+        downStart = new int[vertexCount + 1];
+        for (int s = 0; s < segmentCount; s++) {
+            upStart[segmentLower[s] + 1]++;
+            downStart[segmentUpper[s] + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            upStart[v + 1] += upStart[v];
+            downStart[v + 1] += downStart[v];
+        }
+        up = new int[segmentCount];
+        down = new int[segmentCount];
+        int[] upFill = Arrays.copyOf(upStart, vertexCount);
+        int[] downFill = Arrays.copyOf(downStart, vertexCount);
+        for (int s = 0; s < segmentCount; s++) {
+            up[upFill[segmentLower[s]]++] = segmentUpper[s];
+            down[downFill[segmentUpper[s]]++] = segmentLower[s];
+        }
+    }
+
+    private int addVertex(int r) {
+        if (vertexCount == rank.length) {
+            rank = Arrays.copyOf(rank, vertexCount * 2);
+        }
+        rank[vertexCount] = r;
+        return vertexCount++;
+    }
+
+    private void addSegment(int a, int b) {
+        if (segmentCount == segmentUpper.length) {
+            segmentUpper = Arrays.copyOf(segmentUpper, segmentCount * 2);
+            segmentLower = Arrays.copyOf(segmentLower, segmentCount * 2);
+        }
+        if (rank[a] < rank[b]) {
+            segmentUpper[segmentCount] = a;
+            segmentLower[segmentCount++] = b;
+        } else {
+            segmentUpper[segmentCount] = b;
+            segmentLower[segmentCount++] = a;
+        }
+    }
+
+    /**
+     * Crossing minimisation, sweeping down then up the layers sorting each
+     * by the barycenter of its neighbours in the layer just swept, until a
+     * few sweeps in a row bring no improvement.
+     */
+    private void order() {
+        int widest = 0;
+        for (int[] layer : layers) {
+            widest = Math.max(widest, layer.length);
+        }
+        long[] keyed = new long[widest];
+        int[] scratch = new int[Math.max(widest, segmentCount) + 1];
+        int[][] best = copy(layers);
+        long bestCrossings = crossings(scratch);
+        int stale = 0;
+        for (int pass = 0; pass < ORDER_PASSES && bestCrossings > 0 && stale < ORDER_PATIENCE; pass++) {
+            if ((pass & 1) == 0) {
+                for (int r = 1; r < layers.length; r++) {
+                    sortLayer(layers[r], upStart, up, keyed, scratch);
+                }
+            } else {
+                for (int r = layers.length - 2; r >= 0; r--) {
+                    sortLayer(layers[r], downStart, down, keyed, scratch);
+                }
+            }
+            long crossings = crossings(scratch);
+            if (crossings < bestCrossings) {
+                bestCrossings = crossings;
+                best = copy(layers);
+                stale = 0;
+            } else {
+                stale++;
+            }
+        }
+        layers = best;
+        for (int[] layer : layers) {
+            for (int i = 0; i < layer.length; i++) {
+                position[layer[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * Reorder a layer by neighbour barycenter, vertices without neighbours
+     * keep their slot.
+     */
+    private void sortLayer(int[] layer, int[] start, int[] adjacent, long[] keyed, int[] scratch) {
+        int n = layer.length;
+        int movable = 0;
+        for (int i = 0; i < n; i++) {
+            int v = layer[i];
+            scratch[i] = v;
+            int degree = start[v + 1] - start[v];
+            if (degree == 0) {
+                continue;
+            }
+            long sum = 0;
+            for (int j = start[v]; j < start[v + 1]; j++) {
+                sum += position[adjacent[j]];
+            }
+            // Barycenter in fixed point above, slot below, so ties keep their order.
+            keyed[movable++] = (((sum << 16) / degree) << 24) | i;
+        }
+        Arrays.sort(keyed, 0, movable);
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            int v = scratch[i];
+            if (start[v + 1] != start[v]) {
+                layer[i] = scratch[(int) (keyed[next++] & 0xffffff)];
+            }
+            position[layer[i]] = i;
+        }
+    }
+
+    /**
+     * Total crossings between adjacent layers: walking the upper layer left
+     * to right, each segment crosses every earlier one which ends further
+     * right in the lower layer, counted with a Fenwick tree.
+     */
+    private long crossings(int[] scratch) {
+        long total = 0;
+        for (int r = 0; r + 1 < layers.length; r++) {
+            int size = layers[r + 1].length;
+            int[] tree = new int[size + 1];
+            int seen = 0;
+            for (int v : layers[r]) {
+                // Lower ends of this vertex's segments in order, they share
+                // an end so do not cross each other.
+                int count = 0;
+                for (int j = downStart[v]; j < downStart[v + 1]; j++) {
+                    int lower = position[down[j]];
+                    int k = count++;
+                    while (k > 0 && scratch[k - 1] > lower) {
+                        scratch[k] = scratch[k - 1];
+                        k--;
+                    }
+                    scratch[k] = lower;
+                }
+                for (int i = 0; i < count; i++) {
+                    int atOrLeft = 0;
+                    for (int k = scratch[i] + 1; k > 0; k -= k & -k) {
+                        atOrLeft += tree[k];
+                    }
+                    total += seen - atOrLeft;
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int k = scratch[i] + 1; k <= size; k += k & -k) {
+                        tree[k]++;
+                    }
+                }
+                seen += count;
+            }
+        }
+        return total;
+    }
+
+    private static int[][] copy(int[][] layers) {
+        int[][] result = new int[layers.length][];
+        for (int r = 0; r < layers.length; r++) {
+            result[r] = layers[r].clone();
+        }
+        return result;
+    }
+
+    /**
+     * Coordinate assignment, alternately pulling each layer towards its
+     * neighbours above and below, then once towards both.
+     */
+    private void place() {
+        x = new double[vertexCount];
+        double[] weight = new double[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            weight[v] = v < csr.nodeCount ? 1 : DUMMY_WEIGHT;
+        }
+        for (int[] layer : layers) {
+            double left = 0;
+            for (int v : layer) {
+                x[v] = left + width[v] / 2;
+                left += width[v] + NODE_SEP;
+            }
+        }
+        for (int pass = 0; pass <= PLACE_PASSES; pass++) {
+            boolean both = pass == PLACE_PASSES;
+            if ((pass & 1) == 0 || both) {
+                for (int r = 1; r < layers.length; r++) {
+                    placeLayer(layers[r], weight, true, both);
+                }
+            } else {
+                for (int r = layers.length - 2; r >= 0; r--) {
+                    placeLayer(layers[r], weight, false, false);
+                }
+            }
+        }
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        for (int[] layer : layers) {
+            if (layer.length == 0) continue;
+            minX = Math.min(minX, x[layer[0]] - width[layer[0]] / 2);
+            int last = layer[layer.length - 1];
+            maxX = Math.max(maxX, x[last] + width[last] / 2);
+        }
+        if (minX == Double.MAX_VALUE) {
+            minX = maxX = 0;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            x[v] += MARGIN - minX;
+        }
+        totalWidth = maxX - minX + 2 * MARGIN;
+        double y = MARGIN;
+        for (int r = 0; r < layers.length; r++) {
+            double half = maxHalfHeight(r);
+            rankY[r] = y + half;
+            y += 2 * half + RANK_SEP;
+        }
+        totalHeight = y - RANK_SEP + MARGIN;
+    }
+
+    private double maxHalfHeight(int r) {
+        double half = 0;
+        for (int v : layers[r]) {
+            if (v < csr.nodeCount) {
+                half = Math.max(half, nodeHeight[v] / 2);
+            }
+        }
+        return half;
+    }
+
+    /**
+     * Move a layer as close to the mean x of each vertex's neighbours as
+     * spacing allows: with offsets taking out the minimum gaps the problem
+     * is isotonic regression, solved by pooling adjacent violators.
+     */
+    private void placeLayer(int[] layer, double[] weight, boolean fromAbove, boolean both) {
+        int n = layer.length;
+        if (n == 0) return;
+        double[] target = new double[n];
+        double offset = 0;
+        for (int i = 0; i < n; i++) {
+            int v = layer[i];
+            if (i > 0) {
+                offset += (width[layer[i - 1]] + width[v]) / 2 + NODE_SEP;
+            }
+            double sum = 0;
+            int count = 0;
+            if (fromAbove || both) {
+                for (int j = upStart[v]; j < upStart[v + 1]; j++) {
+                    sum += x[up[j]];
+                    count++;
+                }
+            }
+            if (!fromAbove || both) {
+                for (int j = downStart[v]; j < downStart[v + 1]; j++) {
+                    sum += x[down[j]];
+                    count++;
+                }
+            }
+            target[i] = (count == 0 ? x[v] : sum / count) - offset;
+        }
+        // Blocks of pooled vertices, each with its weighted mean.
+        double[] blockSum = new double[n];
+        double[] blockWeight = new double[n];
+        int[] blockEnd = new int[n];
+        int blocks = 0;
+        for (int i = 0; i < n; i++) {
+            double w = weight[layer[i]];
+            blockSum[blocks] = target[i] * w;
+            blockWeight[blocks] = w;
+            blockEnd[blocks++] = i + 1;
+            while (blocks > 1 && blockSum[blocks - 2] / blockWeight[blocks - 2] > blockSum[blocks - 1] / blockWeight[blocks - 1]) {
+                blockSum[blocks - 2] += blockSum[blocks - 1];
+                blockWeight[blocks - 2] += blockWeight[blocks - 1];
+                blockEnd[blocks - 2] = blockEnd[blocks - 1];
+                blocks--;
+            }
+        }
+        offset = 0;
+        int i = 0;
+        for (int b = 0; b < blocks; b++) {
+            double mean = blockSum[b] / blockWeight[b];
+            for (; i < blockEnd[b]; i++) {
+                if (i > 0) {
+                    offset += (width[layer[i - 1]] + width[layer[i]]) / 2 + NODE_SEP;
+                }
+                x[layer[i]] = mean + offset;
+            }
+        }
+    }
+}
@@ -1,116 +1,177 @@
 package org.cyberiantiger.minecraft.dependencygraph;
 
-import com.google.common.base.Charsets;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import javax.management.JMException;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public class Main extends JavaPlugin implements Listener {
 
     private DependencyGraph graph;
+    private GraphWriter writer;
+    private final EnableTimes enableTimes = new EnableTimes();
 
     @Override
     public void onEnable() {
-        graph = new DependencyGraph();
+        enableTimes.start();
+        saveDefaultConfig();
         getDataFolder().mkdirs();
+        // Loading at STARTUP, every plugin has been loaded and is about to be
+        // enabled, so build the graph in one go and let the enable events
+        // find their plugins already there.
+        List<PluginDescriptor> loaded = new ArrayList<PluginDescriptor>();
         for (Plugin plugin : getServer().getPluginManager().getPlugins()) {
-            if (plugin.isEnabled()) {
-                graph.addPluginDescription(plugin.getDescription());
-            }
+            loaded.add(PluginDescriptor.of(plugin.getDescription()));
         }
-        writeGraphs();
+        graph = new DependencyGraph(loaded);
+        writer = new GraphWriter(this, getConfig().getLong("write-quiet-period", 1000L), TimeUnit.MILLISECONDS);
+        writer.start();
+        writer.markDirty();
         getServer().getPluginManager().registerEvents(this, this);
+        getServer().getServicesManager().register(DependencyService.class, new QueryService(graph), this, ServicePriority.Normal);
+        try {
+            Metrics.register();
+        } catch (JMException ex) {
+            getLogger().log(Level.INFO, "Failed to register metrics MBean", ex);
+        }
+        long metricsInterval = getConfig().getLong("metrics-interval", 60L) * 20L;
+        if (metricsInterval > 0) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, new Runnable() {
+                @Override
+                public void run() {
+                    writeMetrics();
+                }
+            }, metricsInterval, metricsInterval);
+        }
+        // Runs on the first tick, once every plugin and the worlds are loaded.
+        getServer().getScheduler().runTask(this, new Runnable() {
+            @Override
+            public void run() {
+                enableTimes.stop();
+                graph.setEnableTimes(enableTimes.copy());
+                writer.markDirty();
+                final GraphSnapshot snapshot = graph.getSnapshot();
+                getServer().getScheduler().runTaskAsynchronously(Main.this, new Runnable() {
+                    @Override
+                    public void run() {
+                        compareWithLastBoot(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replace boot.snapshot with the graph as it is now, writing what changed
+     * since the last one to boot_diff.txt.
+     */
+    private void compareWithLastBoot(GraphSnapshot snapshot) {
+        File file = new File(getDataFolder(), "boot.snapshot");
+        GraphFile current = GraphFile.of(snapshot.getGraph(), System.currentTimeMillis());
+        try {
+            if (file.isFile()) {
+                final GraphFile previous = GraphFile.read(file);
+                final List<String> diff = SnapshotDiff.diff(previous, current);
+                GraphWriter.writeAtomically(new File(getDataFolder(), "boot_diff.txt"), new GraphWriter.Output() {
+                    @Override
+                    public void write(Writer out) throws IOException {
+                        out.write("Changes since boot at " + new Date(previous.getTime()) + ":\n");
+                        for (String line : diff) {
+                            out.write(line);
+                            out.write('\n');
+                        }
+                    }
+                });
+                if (!diff.isEmpty()) {
+                    getLogger().info("Plugin dependencies changed since last boot, see boot_diff.txt");
+                }
+            }
+        } catch (IOException ex) {
+            getLogger().log(Level.INFO, "Failed to compare with last boot's dependency graph", ex);
+        }
+        try {
+            current.write(file);
+        } catch (IOException ex) {
+            getLogger().log(Level.INFO, "Failed to write boot.snapshot", ex);
+        }
     }
 
     @Override
     public void onDisable() {
+        getServer().getServicesManager().unregisterAll(this);
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        if (getConfig().getLong("metrics-interval", 60L) > 0) {
+            writeMetrics();
+        }
+        try {
+            Metrics.unregister();
+        } catch (JMException ex) {
+            getLogger().log(Level.INFO, "Failed to unregister metrics MBean", ex);
+        }
         super.onDisable();
     }
 
-    @EventHandler
+    private void writeMetrics() {
+        try {
+            Metrics.write(new File(getDataFolder(), "metrics.txt"));
+        } catch (IOException ex) {
+            getLogger().log(Level.INFO, "Failed to write metrics.txt", ex);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
     public void onPluginEnable(PluginEnableEvent e) {
-        graph.addPluginDescription(e.getPlugin().getDescription());
-        writeGraphs();
+        long start = System.nanoTime();
+        Metrics.PLUGIN_ENABLE_EVENTS.incrementAndGet();
+        boolean changed = graph.addPluginDescription(e.getPlugin().getDescription());
+        if (enableTimes.isRecording()) {
+            enableTimes.pluginEnabled(e.getPlugin().getName());
+        }
+        if (changed) {
+            writer.markDirty();
+        }
+        Metrics.EVENT_HANDLER.record(System.nanoTime() - start);
     }
 
     @EventHandler
     public void onPluginDisable(PluginDisableEvent e) {
-        graph.removePluginDescription(e.getPlugin().getDescription());
-        writeGraphs();
+        long start = System.nanoTime();
+        Metrics.PLUGIN_DISABLE_EVENTS.incrementAndGet();
+        if (graph.removePluginDescription(e.getPlugin().getDescription())) {
+            writer.markDirty();
+        }
+        Metrics.EVENT_HANDLER.record(System.nanoTime() - start);
     }
 
-    private void writeGraphs() {
-        File file;
-        file = new File(getDataFolder(), "plugins.dot");
-        try {
-            Writer out = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
-            try {
-                out.write(graph.toDot());
-            } finally {
-                out.close();
-            }
-        } catch (IOException ex) {
-            getLogger().info("Failed to write dependency graph");
-        }
-        file = new File(getDataFolder(), "plugins_simple.dot");
-        try {
-            Writer out = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
-            try {
-                out.write(graph.toSimpleDot());
-            } finally {
-                out.close();
-            }
-        } catch (IOException ex) {
-            getLogger().info("Failed to write dependency graph");
-        }
-        file = new File(getDataFolder(), "plugins_circular.dot");
-        try {
-            Writer out = new OutputStreamWriter(new FileOutputStream(file), Charsets.UTF_8);
-            try {
-                out.write(graph.toCircularDot());
-            } finally {
-                out.close();
-            }
-        } catch (IOException ex) {
-            getLogger().info("Failed to write dependency graph");
-        }
-        file = new File(getDataFolder(), "load_orders.txt");
-        try {
-            PrintWriter out = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), Charsets.UTF_8));
-            try {
-                out.println("Init order:");
-                for (String s : graph.getInitOrder()) {
-                    out.print("    ");
-                    out.println(s);
-                }
-                out.println("Startup enable order:");
-                List<String>[] enableOrders = graph.getEnableOrder();
-                for (String s : enableOrders[0]) {
-                    out.print("    ");
-                    out.println(s);
-                }
-                out.println("Postworld enable order:");
-                for (String s : enableOrders[1]) {
-                    out.print("    ");
-                    out.println(s);
-                }
-            } finally {
-                out.close();
-            }
-        } catch (IOException ex) {
-            getLogger().info("Failed to write dependency graph");
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent e) {
+        Metrics.WORLD_LOAD_EVENTS.incrementAndGet();
+        if (enableTimes.isRecording()) {
+            enableTimes.worldLoaded();
         }
+    }
 
+    /**
+     * The latest version of the graph, can be called from any thread.
+     */
+    GraphSnapshot getSnapshot() {
+        return graph.getSnapshot();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Counters and latency histograms for the work the graph does, shared by
+ * every graph in the process.
+ *
+ * Recording is lock free and allocates nothing, so it can stay on the
+ * server thread. The values are published as attributes of one MBean,
+ * {@value #OBJECT_NAME}, and can be written to a file with one attribute
+ * per line; times are in microseconds.
+ */
+final class Metrics {
+
+    static final String OBJECT_NAME = "org.cyberiantiger.minecraft.dependencygraph:type=Metrics";
+
+    private static final Map<String,AtomicLong> COUNTERS = new LinkedHashMap<String,AtomicLong>();
+    private static final Map<String,Histogram> TIMERS = new LinkedHashMap<String,Histogram>();
+
+    static final AtomicLong PLUGIN_ENABLE_EVENTS = counter("pluginEnableEvents");
+    static final AtomicLong PLUGIN_DISABLE_EVENTS = counter("pluginDisableEvents");
+    static final AtomicLong WORLD_LOAD_EVENTS = counter("worldLoadEvents");
+    /**
+     * Every file written, outputs, snapshots and caches alike, and outputs
+     * found unchanged and not written at all.
+     */
+    static final AtomicLong FILES_WRITTEN = counter("filesWritten");
+    static final AtomicLong FILES_UNCHANGED = counter("filesUnchanged");
+    static final AtomicLong BYTES_WRITTEN = counter("bytesWritten");
+
+    /**
+     * Time spent in event handlers on the server thread.
+     */
+    static final Histogram EVENT_HANDLER = timer("eventHandler");
+    static final Histogram ADD_PLUGIN = timer("addPluginDescription");
+    static final Histogram REMOVE_PLUGIN = timer("removePluginDescription");
+    static final Histogram INIT_ORDER = timer("initOrder");
+    static final Histogram ENABLE_ORDER = timer("enableOrder");
+    static final Histogram WRITE_GRAPHS = timer("writeGraphs");
+
+    private Metrics() {
+    }
+
+    private static AtomicLong counter(String name) {
+        AtomicLong result = new AtomicLong();
+        COUNTERS.put(name, result);
+        return result;
+    }
+
+    private static Histogram timer(String name) {
+        Histogram result = new Histogram();
+        TIMERS.put(name, result);
+        return result;
+    }
+
+    /**
+     * Current values by attribute name, in a fixed order.
+     */
+    static Map<String,Long> getValues() {
+        Map<String,Long> result = new LinkedHashMap<String,Long>();
+        for (Map.Entry<String,AtomicLong> e : COUNTERS.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String,Histogram> e : TIMERS.entrySet()) {
+            String name = e.getKey();
+            Histogram timer = e.getValue();
+            result.put(name + "Count", timer.getCount());
+            result.put(name + "TotalMicros", micros(timer.getTotal()));
+            result.put(name + "P50Micros", micros(timer.getPercentile(0.5)));
+            result.put(name + "P99Micros", micros(timer.getPercentile(0.99)));
+            result.put(name + "MaxMicros", micros(timer.getMax()));
+        }
+        return result;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    static void write(File file) throws IOException {
+        final Map<String,Long> values = getValues();
+        GraphWriter.writeAtomically(file, new GraphWriter.Output() {
+            @Override
+            public void write(Writer out) throws IOException {
+                for (Map.Entry<String,Long> e : values.entrySet()) {
+                    out.write(e.getKey());
+                    out.write(' ');
+                    out.write(String.valueOf(e.getValue()));
+                    out.write('\n');
+                }
+            }
+        });
+    }
+
+    /**
+     * Register the MBean with the platform MBean server, replacing any left
+     * behind by an earlier copy of the plugin.
+     */
+    static void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(new Bean(), name);
+    }
+
+    static void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Read only view of {@link #getValues()}.
+     */
+    private static final class Bean implements DynamicMBean {
+
+        private final MBeanInfo info;
+
+        Bean() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (String name : getValues().keySet()) {
+                attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+            }
+            info = new MBeanInfo(Bean.class.getName(), "Dependency graph metrics",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long result = getValues().get(attribute);
+            if (result == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return result;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String,Long> values = getValues();
+            AttributeList result = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) {
+                    result.add(new Attribute(attribute, value));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
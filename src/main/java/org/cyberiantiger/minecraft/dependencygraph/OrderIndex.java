@@ -0,0 +1,256 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * The order {@link TopologicalSort} gives for one drop order, kept up to date
+ * as edges come and go.
+ *
+ * Cycle breaking ignores the next type in the drop order on the edges inside
+ * each component which is still cyclic, so the type at step k is ignored on
+ * an edge exactly when both ends are in one strongly connected component of
+ * the edges which have none of the types before it. There is a
+ * {@link CycleIndex} for each step, the first shared with the graph, and an
+ * edge keeps whatever types none of them take away.
+ *
+ * The order is by level, the length of the longest chain of kept edges below
+ * a node, then by id. Levels only change for the node an edge comes from,
+ * for nodes which join or leave a component at some step, and for whatever
+ * depends on those. They are worked out again lowest level first when the
+ * order is next asked for, so the cost of a change follows the part of the
+ * graph it affects; only the order itself is put back together in full.
+ */
+final class OrderIndex implements CycleIndex.Listener {
+
+    private final AdjacencyStore store;
+    private final CycleIndex[] steps;
+    // Types ignored inside a component of each step.
+    private final byte[] ignored;
+    private int[] level = new int[16];
+    private boolean stale = true;
+    // Nodes waiting to have their level worked out again, by level << 32 | id.
+    private final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+    private boolean[] queued = new boolean[16];
+    private int[] order;
+
+    /**
+     * @param store the graph
+     * @param cycles components over every type of edge
+     * @param dropOrder types of edge to ignore, in order, when breaking cycles
+     */
+    OrderIndex(AdjacencyStore store, CycleIndex cycles, EdgeType... dropOrder) {
+        this.store = store;
+        byte remaining = EdgeType.DECLARED;
+        CycleIndex[] steps = new CycleIndex[dropOrder.length + 1];
+        byte[] ignored = new byte[dropOrder.length + 1];
+        int count = 0;
+        for (int k = 0; k <= dropOrder.length && remaining != 0; k++) {
+            steps[count] = k == 0 ? cycles : new CycleIndex(store, remaining);
+            steps[count].addListener(this);
+            // Once the drop order runs out, everything left goes.
+            ignored[count++] = k < dropOrder.length ? dropOrder[k].getMask() : remaining;
+            if (k < dropOrder.length) {
+                remaining &= ~dropOrder[k].getMask();
+            }
+        }
+        this.steps = Arrays.copyOf(steps, count);
+        this.ignored = Arrays.copyOf(ignored, count);
+    }
+
+    /**
+     * Node ids in order, each after everything its kept edges point at. The
+     * array must not be changed.
+     */
+    int[] getOrder() {
+        build();
+        for (CycleIndex step : steps) {
+            step.flush();
+        }
+        settle();
+        if (order == null) {
+            int count = store.getCapacity();
+            int levels = 0;
+            int[] live = new int[count];
+            for (int id = 0; id < count; id++) {
+                if (store.getNode(id) == null) {
+                    live[id] = -1;
+                } else {
+                    live[id] = level[id];
+                    levels = Math.max(levels, level[id] + 1);
+                }
+            }
+            order = TopologicalSort.byLevel(live, count, levels);
+        }
+        return order;
+    }
+
+    // The graph tells the first step itself, before these.
+
+    void nodeAdded(int id) {
+        for (int k = 1; k < steps.length; k++) {
+            steps[k].nodeAdded(id);
+        }
+        if (!stale) {
+            ensureCapacity(id + 1);
+            level[id] = 0;
+            order = null;
+        }
+    }
+
+    void nodeRemoved(int id) {
+        for (int k = 1; k < steps.length; k++) {
+            steps[k].nodeRemoved(id);
+        }
+        if (!stale) {
+            order = null;
+        }
+    }
+
+    void edgeAdded(int from, int to, byte added) {
+        for (int k = 1; k < steps.length; k++) {
+            steps[k].edgeAdded(from, to, added);
+        }
+        if (!stale) {
+            enqueue(from);
+        }
+    }
+
+    void edgeRemoved(int from, int to, byte removed) {
+        for (int k = 1; k < steps.length; k++) {
+            steps[k].edgeRemoved(from, to, removed);
+        }
+        if (!stale) {
+            enqueue(from);
+        }
+    }
+
+    @Override
+    public void moved(int[] nodes) {
+        if (stale) {
+            return;
+        }
+        // Their edges within the component, both ways, changed what is kept.
+        for (int v : nodes) {
+            if (store.getNode(v) == null) {
+                continue;
+            }
+            enqueue(v);
+            int[] parents = store.getParentIds(v);
+            for (int i = 0; i < store.getParentCount(v); i++) {
+                enqueue(parents[i]);
+            }
+        }
+    }
+
+    private void build() {
+        if (!stale) {
+            return;
+        }
+        for (CycleIndex step : steps) {
+            step.build();
+            step.flush();
+        }
+        int capacity = store.getCapacity();
+        level = new int[Math.max(16, capacity)];
+        queued = new boolean[level.length];
+        queue.clear();
+        stale = false;
+        // Kahn's algorithm over the kept edges.
+        int[] remaining = new int[capacity];
+        int[] ready = new int[capacity];
+        int tail = 0;
+        for (int id = 0; id < capacity; id++) {
+            if (store.getNode(id) == null) {
+                continue;
+            }
+            int[] children = store.getChildIds(id);
+            byte[] types = store.getChildTypes(id);
+            for (int i = 0; i < store.getChildCount(id); i++) {
+                if (kept(id, children[i], types[i]) != 0) {
+                    remaining[id]++;
+                }
+            }
+            if (remaining[id] == 0) {
+                ready[tail++] = id;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int v = ready[head];
+            int[] parents = store.getParentIds(v);
+            byte[] types = store.getParentTypes(v);
+            for (int i = 0; i < store.getParentCount(v); i++) {
+                int p = parents[i];
+                if (kept(p, v, types[i]) != 0) {
+                    level[p] = Math.max(level[p], level[v] + 1);
+                    if (--remaining[p] == 0) {
+                        ready[tail++] = p;
+                    }
+                }
+            }
+        }
+        order = null;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > level.length) {
+            int length = Math.max(size, level.length * 2);
+            level = Arrays.copyOf(level, length);
+            queued = Arrays.copyOf(queued, length);
+        }
+    }
+
+    /**
+     * Types of an edge left by cycle breaking. Components only get finer
+     * step by step, so the first step which separates the ends is the last
+     * one to look at.
+     */
+    private byte kept(int from, int to, byte types) {
+        types &= EdgeType.DECLARED;
+        for (int k = 0; k < steps.length && steps[k].getComponent(from) == steps[k].getComponent(to); k++) {
+            types &= ~ignored[k];
+        }
+        return types;
+    }
+
+    private void enqueue(int id) {
+        if (!queued[id] && store.getNode(id) != null) {
+            queued[id] = true;
+            queue.add((long) level[id] << 32 | id);
+        }
+    }
+
+    /**
+     * Work out the levels of queued nodes again, lowest first, queueing
+     * whatever depends on a node whose level changed.
+     */
+    private void settle() {
+        while (!queue.isEmpty()) {
+            int v = (int) queue.poll().longValue();
+            queued[v] = false;
+            if (store.getNode(v) == null) {
+                continue;
+            }
+            int result = 0;
+            int[] children = store.getChildIds(v);
+            byte[] types = store.getChildTypes(v);
+            for (int i = 0; i < store.getChildCount(v); i++) {
+                if (kept(v, children[i], types[i]) != 0) {
+                    result = Math.max(result, level[children[i]] + 1);
+                }
+            }
+            if (result == level[v]) {
+                continue;
+            }
+            level[v] = result;
+            order = null;
+            int[] parents = store.getParentIds(v);
+            byte[] parentTypes = store.getParentTypes(v);
+            for (int i = 0; i < store.getParentCount(v); i++) {
+                if (kept(parents[i], v, parentTypes[i]) != 0) {
+                    enqueue(parents[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginLoadOrder;
+
+/**
+ * The parts of a PluginDescriptionFile which the dependency graph uses.
+ */
+final class PluginDescriptor {
+
+    private final String name;
+    private final String version;
+    private final PluginLoadOrder load;
+    private final List<String> depend;
+    private final List<String> softDepend;
+    private final List<String> loadBefore;
+    private final List<String> inferred;
+
+    PluginDescriptor(String name, String version, PluginLoadOrder load, List<String> depend, List<String> softDepend, List<String> loadBefore) {
+        this(name, version, load, depend, softDepend, loadBefore, null);
+    }
+
+    PluginDescriptor(String name, String version, PluginLoadOrder load, List<String> depend, List<String> softDepend, List<String> loadBefore, List<String> inferred) {
+        this.name = name;
+        this.version = version == null ? "" : version;
+        this.load = load;
+        this.depend = copy(depend);
+        this.softDepend = copy(softDepend);
+        this.loadBefore = copy(loadBefore);
+        this.inferred = copy(inferred);
+    }
+
+    static PluginDescriptor of(PluginDescriptionFile description) {
+        return new PluginDescriptor(description.getName(), description.getVersion(), description.getLoad(), description.getDepend(), description.getSoftDepend(), description.getLoadBefore());
+    }
+
+    private static List<String> copy(List<String> list) {
+        if (list == null || list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(list));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public PluginLoadOrder getLoad() {
+        return load;
+    }
+
+    public List<String> getDepend() {
+        return depend;
+    }
+
+    public List<String> getSoftDepend() {
+        return softDepend;
+    }
+
+    public List<String> getLoadBefore() {
+        return loadBefore;
+    }
+
+    /**
+     * Plugins whose classes this one refers to without declaring it.
+     */
+    public List<String> getInferred() {
+        return inferred;
+    }
+
+    PluginDescriptor withInferred(List<String> inferred) {
+        return new PluginDescriptor(name, version, load, depend, softDepend, loadBefore, inferred);
+    }
+}
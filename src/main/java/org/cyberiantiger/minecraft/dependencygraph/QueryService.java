@@ -0,0 +1,291 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * {@link DependencyService} answering from {@link GraphSnapshot}s of the
+ * server's graph, so it never touches the live graph's state. Closures are
+ * read off the snapshot's closure index for the requested edge types, which
+ * the graph keeps up to date once it has been asked for.
+ */
+final class QueryService implements DependencyService {
+
+    private final DependencyGraph live;
+    // Set when answering from one version only.
+    private final GraphSnapshot pinned;
+    // Orders for the last version they were asked for.
+    private volatile Orders orders;
+
+    QueryService(DependencyGraph live) {
+        this(live, null);
+    }
+
+    private QueryService(DependencyGraph live, GraphSnapshot pinned) {
+        this.live = live;
+        this.pinned = pinned;
+    }
+
+    private GraphSnapshot current() {
+        return pinned != null ? pinned : live.getSnapshot();
+    }
+
+    @Override
+    public long getVersion() {
+        return current().getVersion();
+    }
+
+    @Override
+    public DependencyService snapshot() {
+        return new QueryService(live, current());
+    }
+
+    @Override
+    public Set<String> getPlugins() {
+        return current().getGraph().getPluginNames();
+    }
+
+    @Override
+    public List<String> getDirectDependencies(String plugin, Set<EdgeType> types) {
+        DependencyGraph graph = current().getGraph();
+        AdjacencyStore.Csr csr = graph.getCsr();
+        int id = graph.getNodeId(plugin);
+        byte mask = mask(types);
+        int[] ids = new int[csr.outStart[id + 1] - csr.outStart[id]];
+        int count = 0;
+        for (int e = csr.outStart[id]; e < csr.outStart[id + 1]; e++) {
+            if ((csr.types[e] & mask) != 0 && csr.to[e] != id && graph.isPlugin(csr.to[e])) {
+                ids[count++] = csr.to[e];
+            }
+        }
+        return new NameList(graph, Arrays.copyOf(ids, count));
+    }
+
+    @Override
+    public List<String> getAllDependencies(String plugin, Set<EdgeType> types) {
+        return closure(current(), plugin, mask(types), false);
+    }
+
+    @Override
+    public Map<String,List<String>> getAllDependencies(Collection<String> plugins, Set<EdgeType> types) {
+        return closures(plugins, types, false);
+    }
+
+    @Override
+    public List<String> getAllDependents(String plugin, Set<EdgeType> types) {
+        return closure(current(), plugin, mask(types), true);
+    }
+
+    @Override
+    public Map<String,List<String>> getAllDependents(Collection<String> plugins, Set<EdgeType> types) {
+        return closures(plugins, types, true);
+    }
+
+    private Map<String,List<String>> closures(Collection<String> plugins, Set<EdgeType> types, boolean parents) {
+        GraphSnapshot snapshot = current();
+        byte mask = mask(types);
+        Map<String,List<String>> result = new LinkedHashMap<String,List<String>>();
+        for (String plugin : plugins) {
+            result.put(plugin, closure(snapshot, plugin, mask, parents));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Plugins reachable from one through edges of the mask, from its row of
+     * the closure index, in enable order.
+     */
+    private List<String> closure(GraphSnapshot snapshot, String plugin, byte mask, boolean parents) {
+        DependencyGraph graph = snapshot.getGraph();
+        int[] ids = snapshot.getReachability(mask, parents).closure(graph.getNodeId(plugin));
+        int[] position = getOrders(snapshot).enablePosition;
+        // Enable position << 32 | id, so sorting puts them in enable order.
+        long[] keys = new long[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            if (graph.isPlugin(id)) {
+                keys[count++] = (long) position[id] << 32 | id;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = (int) keys[i];
+        }
+        return new NameList(graph, result);
+    }
+
+    @Override
+    public boolean dependenciesSatisfied(String plugin) {
+        return current().getGraph().dependenciesSatisfied(plugin);
+    }
+
+    @Override
+    public List<Edge> explain(String plugin, String dependency, Set<EdgeType> types) {
+        DependencyGraph graph = current().getGraph();
+        byte mask = mask(types);
+        int[] path = Traversal.shortestPath(graph.getCsr(), graph.getNodeId(plugin), graph.getNodeId(dependency), mask);
+        if (path == null) {
+            return Collections.emptyList();
+        }
+        return new EdgeList(graph, path, mask);
+    }
+
+    @Override
+    public List<String> getInitOrder() {
+        return getOrders(current()).init;
+    }
+
+    @Override
+    public List<String> getStartupEnableOrder() {
+        return getOrders(current()).startup;
+    }
+
+    @Override
+    public List<String> getPostWorldEnableOrder() {
+        return getOrders(current()).postWorld;
+    }
+
+    private Orders getOrders(GraphSnapshot snapshot) {
+        Orders result = orders;
+        if (result == null || result.version != snapshot.getVersion()) {
+            result = new Orders(snapshot);
+            orders = result;
+        }
+        return result;
+    }
+
+    private static byte mask(Set<EdgeType> types) {
+        byte result = 0;
+        for (EdgeType type : types) {
+            result |= type.getMask();
+        }
+        return result;
+    }
+
+    private static final class Orders {
+        private final long version;
+        private final List<String> init;
+        private final List<String> startup;
+        private final List<String> postWorld;
+        // Index of each node id in the enable order.
+        private final int[] enablePosition;
+
+        Orders(GraphSnapshot snapshot) {
+            DependencyGraph graph = snapshot.getGraph();
+            List<String>[] enable = graph.getEnableOrder();
+            this.version = snapshot.getVersion();
+            this.init = Collections.unmodifiableList(graph.getInitOrder());
+            this.startup = Collections.unmodifiableList(enable[0]);
+            this.postWorld = Collections.unmodifiableList(enable[1]);
+            int[] order = snapshot.getEnableOrder();
+            this.enablePosition = new int[snapshot.getStore().getCapacity()];
+            for (int i = 0; i < order.length; i++) {
+                enablePosition[order[i]] = i;
+            }
+        }
+    }
+
+    /**
+     * Names of node ids, looked up as they are read.
+     */
+    private static final class NameList extends AbstractList<String> implements RandomAccess {
+        private final DependencyGraph graph;
+        private final int[] ids;
+
+        NameList(DependencyGraph graph, int[] ids) {
+            this.graph = graph;
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= ids.length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return graph.getNodeName(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    /**
+     * Edges of a path by edge id in the snapshot's Csr.
+     */
+    private static final class EdgeList extends AbstractList<Edge> implements RandomAccess {
+        private final DependencyGraph graph;
+        private final AdjacencyStore.Csr csr;
+        private final int[] edges;
+        private final byte mask;
+
+        EdgeList(DependencyGraph graph, int[] edges, byte mask) {
+            this.graph = graph;
+            this.csr = graph.getCsr();
+            this.edges = edges;
+            this.mask = mask;
+        }
+
+        @Override
+        public Edge get(int index) {
+            if (index < 0 || index >= edges.length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            int e = edges[index];
+            return new PathEdge(graph.getNodeName(csr.from[e]), graph.getNodeName(csr.to[e]), (byte) (csr.types[e] & mask));
+        }
+
+        @Override
+        public int size() {
+            return edges.length;
+        }
+    }
+
+    private static final class PathEdge implements Edge {
+        private final String from;
+        private final String to;
+        private final byte types;
+
+        PathEdge(String from, String to, byte types) {
+            this.from = from;
+            this.to = to;
+            this.types = types;
+        }
+
+        @Override
+        public String getFrom() {
+            return from;
+        }
+
+        @Override
+        public String getTo() {
+            return to;
+        }
+
+        @Override
+        public Set<EdgeType> getTypes() {
+            Set<EdgeType> result = EnumSet.noneOf(EdgeType.class);
+            for (EdgeType type : EdgeType.VALUES) {
+                if ((types & type.getMask()) != 0) {
+                    result.add(type);
+                }
+            }
+            return Collections.unmodifiableSet(result);
+        }
+
+        @Override
+        public String toString() {
+            return from + " -> " + to + " " + getTypes();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Transitive closure of an {@link AdjacencyStore} for one set of edge types
+ * and one direction, as a bitset row per node.
+ *
+ * Built lazily by condensing the graph with Tarjan's algorithm, which emits
+ * each strongly connected component after everything it can reach, so each
+ * component's row is the union of its members and its neighbours' rows.
+ * Members of a component share a row. Edge insertions are applied in place;
+ * an edge removal only recomputes the source's row when nothing else reaches
+ * the source, otherwise the index is rebuilt on the next query.
+ *
+ * Rows cost capacity / 8 bytes each, so memory grows with the square of the
+ * number of nodes. Copies for snapshots share the rows, and an index copies
+ * a shared row before it first changes it.
+ */
+final class ReachabilityIndex {
+
+    private final AdjacencyStore store;
+    private final byte mask;
+    private final boolean parents;
+    private long[][] rows;
+    private int words;
+    private boolean stale = true;
+    // Generation each node's row was made in, rows from an earlier one may
+    // be shared with a copy.
+    private int[] owner;
+    private int generation;
+
+    /**
+     * @param store the graph
+     * @param mask the edge types to follow
+     * @param parents follow parent edges instead of child edges
+     */
+    ReachabilityIndex(AdjacencyStore store, byte mask, boolean parents) {
+        this.store = store;
+        this.mask = mask;
+        this.parents = parents;
+    }
+
+    /**
+     * Copy of this index for a store with the same nodes and edges, which
+     * shares its rows with this one. Only an index which is up to date can
+     * be copied.
+     */
+    ReachabilityIndex share(AdjacencyStore store) {
+        if (stale) {
+            throw new IllegalStateException("Index is not built");
+        }
+        ReachabilityIndex result = new ReachabilityIndex(store, mask, parents);
+        result.rows = rows.clone();
+        result.words = words;
+        result.owner = new int[rows.length];
+        result.generation = 1;
+        result.stale = false;
+        generation++;
+        return result;
+    }
+
+    /**
+     * Whether the index will be rebuilt on the next query.
+     */
+    boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Whether to is reachable from from, every node reaches itself.
+     */
+    boolean reaches(int from, int to) {
+        build();
+        return (rows[from][to >>> 6] & (1L << to)) != 0;
+    }
+
+    /**
+     * Bitset of the nodes reachable from id, including id itself. Members of
+     * a component share one, it must not be changed.
+     */
+    long[] row(int id) {
+        build();
+        return rows[id];
+    }
+
+    /**
+     * Ids of every node reachable from id, not including id itself.
+     */
+    int[] closure(int id) {
+        build();
+        long[] row = rows[id];
+        int count = 0;
+        for (long word : row) {
+            count += Long.bitCount(word);
+        }
+        int[] result = new int[count - 1];
+        int j = 0;
+        for (int w = 0; w < row.length; w++) {
+            long word = row[w];
+            while (word != 0) {
+                int bit = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (bit != id) {
+                    result[j++] = bit;
+                }
+            }
+        }
+        return result;
+    }
+
+    void nodeAdded(int id) {
+        if (stale) {
+            return;
+        }
+        if (id >= words << 6) {
+            stale = true;
+            return;
+        }
+        long[] row = new long[words];
+        row[id >>> 6] = 1L << id;
+        rows[id] = row;
+        owner[id] = generation;
+    }
+
+    void nodeRemoved(int id) {
+        if (!stale) {
+            rows[id] = null;
+        }
+    }
+
+    /**
+     * Called after the types in added have been added to the edge from a node to a child.
+     */
+    void edgeAdded(int from, int to, byte added) {
+        if (stale || (added & mask) == 0) {
+            return;
+        }
+        if (parents) {
+            int tmp = from;
+            from = to;
+            to = tmp;
+        }
+        long[] target = rows[to];
+        int word = from >>> 6;
+        long bit = 1L << from;
+        // Shared rows by their copies, so members of a component keep sharing one.
+        Map<long[],long[]> copies = null;
+        // Everything which reaches from now reaches everything to does.
+        for (int x = 0; x < rows.length; x++) {
+            long[] row = rows[x];
+            if (row != null && (row[word] & bit) != 0 && row != target) {
+                if (owner[x] != generation) {
+                    if (copies == null) {
+                        copies = new IdentityHashMap<long[],long[]>();
+                    }
+                    long[] copy = copies.get(row);
+                    if (copy == null) {
+                        copy = row.clone();
+                        copies.put(row, copy);
+                        for (int i = 0; i < words; i++) {
+                            copy[i] |= target[i];
+                        }
+                    }
+                    rows[x] = copy;
+                    owner[x] = generation;
+                    continue;
+                }
+                for (int i = 0; i < words; i++) {
+                    row[i] |= target[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Called after the edge from a node to a child has been removed, removed
+     * being the types it had.
+     */
+    void edgeRemoved(int from, int to, byte removed) {
+        if (stale || (removed & mask) == 0) {
+            return;
+        }
+        if (parents) {
+            int tmp = from;
+            from = to;
+            to = tmp;
+        }
+        int word = from >>> 6;
+        long bit = 1L << from;
+        long[] own = rows[from];
+        for (int x = 0; x < rows.length; x++) {
+            long[] row = rows[x];
+            if (row != null && x != from && (row[word] & bit) != 0) {
+                // Something else reaches from, so from may be on a cycle and
+                // what else lost reachability is not local.
+                stale = true;
+                return;
+            }
+        }
+        if (owner[from] != generation) {
+            own = new long[words];
+            rows[from] = own;
+            owner[from] = generation;
+        } else {
+            Arrays.fill(own, 0L);
+        }
+        own[word] = bit;
+        int count = parents ? store.getParentCount(from) : store.getChildCount(from);
+        int[] ids = parents ? store.getParentIds(from) : store.getChildIds(from);
+        byte[] types = parents ? store.getParentTypes(from) : store.getChildTypes(from);
+        for (int i = 0; i < count; i++) {
+            if ((types[i] & mask) != 0) {
+                long[] row = rows[ids[i]];
+                for (int j = 0; j < words; j++) {
+                    own[j] |= row[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Bring the index up to date, queries do this themselves.
+     */
+    void build() {
+        if (!stale) {
+            return;
+        }
+        int capacity = store.getCapacity();
+        words = (capacity + 63) >>> 6;
+        rows = new long[words << 6][];
+        owner = new int[rows.length];
+        Arrays.fill(owner, generation);
+        int[] index = new int[capacity];
+        int[] low = new int[capacity];
+        boolean[] onStack = new boolean[capacity];
+        int[] stack = new int[capacity];
+        int[] callNode = new int[capacity];
+        int[] callPos = new int[capacity];
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int stackSize = 0;
+        for (int root = 0; root < capacity; root++) {
+            if (index[root] != -1 || store.getNode(root) == null) {
+                continue;
+            }
+            int depth = 0;
+            callNode[depth] = root;
+            callPos[depth++] = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int v = callNode[depth - 1];
+                int pos = callPos[depth - 1];
+                int count = parents ? store.getParentCount(v) : store.getChildCount(v);
+                if (pos < count) {
+                    callPos[depth - 1] = pos + 1;
+                    byte type = parents ? store.getParentTypes(v)[pos] : store.getChildTypes(v)[pos];
+                    if ((type & mask) == 0) {
+                        continue;
+                    }
+                    int w = parents ? store.getParentIds(v)[pos] : store.getChildIds(v)[pos];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callNode[depth] = w;
+                        callPos[depth++] = 0;
+                    } else if (onStack[w] && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                } else {
+                    depth--;
+                    if (low[v] == index[v]) {
+                        emit(v, stack, stackSize, onStack);
+                        while (stack[--stackSize] != v) {
+                        }
+                    }
+                    if (depth > 0) {
+                        int u = callNode[depth - 1];
+                        if (low[v] < low[u]) {
+                            low[u] = low[v];
+                        }
+                    }
+                }
+            }
+        }
+        stale = false;
+    }
+
+    /**
+     * Fill in the shared row for the component rooted at v, which is the top
+     * of the Tarjan stack down to v.
+     */
+    private void emit(int v, int[] stack, int stackSize, boolean[] onStack) {
+        long[] row = new long[words];
+        int bottom = stackSize;
+        do {
+            int w = stack[--bottom];
+            row[w >>> 6] |= 1L << w;
+        } while (stack[bottom] != v);
+        for (int i = bottom; i < stackSize; i++) {
+            int w = stack[i];
+            int count = parents ? store.getParentCount(w) : store.getChildCount(w);
+            int[] ids = parents ? store.getParentIds(w) : store.getChildIds(w);
+            byte[] types = parents ? store.getParentTypes(w) : store.getChildTypes(w);
+            for (int j = 0; j < count; j++) {
+                long[] other = rows[ids[j]];
+                if ((types[j] & mask) != 0 && other != null) {
+                    for (int k = 0; k < words; k++) {
+                        row[k] |= other[k];
+                    }
+                }
+            }
+        }
+        for (int i = bottom; i < stackSize; i++) {
+            rows[stack[i]] = row;
+            onStack[stack[i]] = false;
+        }
+    }
+}
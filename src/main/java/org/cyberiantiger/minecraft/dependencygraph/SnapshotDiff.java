@@ -0,0 +1,255 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Differences between two {@link GraphFile} snapshots.
+ *
+ * <pre>
+ * java -cp DependencyGraph.jar org.cyberiantiger.minecraft.dependencygraph.SnapshotDiff \
+ *     before.snapshot after.snapshot
+ * </pre>
+ *
+ * Lists added and removed plugins, version changes, edges added, removed or
+ * of a different type between plugins in both, and plugins which moved in
+ * the init and enable orders. Both files have their nodes and edges sorted
+ * by name, so everything but the orders is a single merge; a plugin has
+ * moved in an order when it is not in the longest run of common plugins
+ * which kept their relative order, so one plugin moving is reported as one
+ * plugin, not as everything it passed. Exits with 0 when there are no
+ * differences, 1 when there are and 2 on error.
+ *
+ * The plugin compares its boot.snapshot with the last boot's on each start,
+ * and {@link Analyzer} writes plugins.snapshot to compare deploys.
+ */
+public final class SnapshotDiff {
+
+    private SnapshotDiff() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Usage: SnapshotDiff before.snapshot after.snapshot");
+            System.exit(2);
+        }
+        List<String> diff;
+        try {
+            diff = diff(GraphFile.read(new File(args[0])), GraphFile.read(new File(args[1])));
+        } catch (IOException ex) {
+            System.err.println("Failed to read snapshot: " + ex.getMessage());
+            System.exit(2);
+            return;
+        }
+        for (String line : diff) {
+            System.out.println(line);
+        }
+        System.exit(diff.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Report lines, a heading for each kind of difference followed by the
+     * differences indented, or an empty list if the graphs are the same.
+     */
+    static List<String> diff(GraphFile before, GraphFile after) {
+        String[] oldNames = before.getNames();
+        String[] newNames = after.getNames();
+        // Node indexes of each file in the other, or -1.
+        int[] toNew = new int[oldNames.length];
+        int[] toOld = new int[newNames.length];
+        Arrays.fill(toNew, -1);
+        Arrays.fill(toOld, -1);
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        List<String> versions = new ArrayList<String>();
+        int i = 0;
+        int j = 0;
+        while (i < oldNames.length || j < newNames.length) {
+            int cmp = i == oldNames.length ? 1 : j == newNames.length ? -1 : oldNames[i].compareTo(newNames[j]);
+            if (cmp < 0) {
+                removed.add(oldNames[i] + " " + before.getVersions()[i]);
+                i++;
+            } else if (cmp > 0) {
+                added.add(newNames[j] + " " + after.getVersions()[j]);
+                j++;
+            } else {
+                toNew[i] = j;
+                toOld[j] = i;
+                if (!before.getVersions()[i].equals(after.getVersions()[j])) {
+                    versions.add(newNames[j] + " " + before.getVersions()[i] + " -> " + after.getVersions()[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+        List<String> result = new ArrayList<String>();
+        section(result, "Added plugins:", added);
+        section(result, "Removed plugins:", removed);
+        section(result, "Changed versions:", versions);
+        diffEdges(result, before, after, toNew, toOld);
+        section(result, "Moved in init order:", moved(before.getInitOrder(), after.getInitOrder(), toOld, oldNames.length, newNames));
+        int[] oldEnable = concat(before.getStartupOrder(), before.getPostworldOrder());
+        int[] newEnable = concat(after.getStartupOrder(), after.getPostworldOrder());
+        section(result, "Moved in enable order:", moved(oldEnable, newEnable, toOld, oldNames.length, newNames));
+        List<String> phases = new ArrayList<String>();
+        boolean[] postworld = new boolean[oldNames.length];
+        for (int v : before.getPostworldOrder()) {
+            postworld[v] = true;
+        }
+        for (int v : after.getStartupOrder()) {
+            if (toOld[v] >= 0 && postworld[toOld[v]]) {
+                phases.add(newNames[v] + " postworld -> startup");
+            }
+        }
+        boolean[] startup = new boolean[oldNames.length];
+        for (int v : before.getStartupOrder()) {
+            startup[v] = true;
+        }
+        for (int v : after.getPostworldOrder()) {
+            if (toOld[v] >= 0 && startup[toOld[v]]) {
+                phases.add(newNames[v] + " startup -> postworld");
+            }
+        }
+        section(result, "Changed enable phase:", phases);
+        return result;
+    }
+
+    private static void section(List<String> result, String heading, List<String> lines) {
+        if (!lines.isEmpty()) {
+            result.add(heading);
+            for (String line : lines) {
+                result.add("    " + line);
+            }
+        }
+    }
+
+    /**
+     * Merge the edges between plugins in both, the old ones renumbered to
+     * the new node indexes, by from and to.
+     */
+    private static void diffEdges(List<String> result, GraphFile before, GraphFile after, int[] toNew, int[] toOld) {
+        long[] oldEdges = new long[before.getEdges().length];
+        int oldCount = 0;
+        for (long edge : before.getEdges()) {
+            int from = toNew[GraphFile.from(edge)];
+            int to = toNew[GraphFile.to(edge)];
+            if (from >= 0 && to >= 0) {
+                oldEdges[oldCount++] = GraphFile.pack(from, to, GraphFile.types(edge));
+            }
+        }
+        Arrays.sort(oldEdges, 0, oldCount);
+        long[] newEdges = after.getEdges();
+        String[] names = after.getNames();
+        List<String> added = new ArrayList<String>();
+        List<String> removed = new ArrayList<String>();
+        List<String> changed = new ArrayList<String>();
+        int i = 0;
+        int j = 0;
+        while (i < oldCount || j < newEdges.length) {
+            if (j < newEdges.length && (toOld[GraphFile.from(newEdges[j])] < 0 || toOld[GraphFile.to(newEdges[j])] < 0)) {
+                j++;
+                continue;
+            }
+            long oldKey = i < oldCount ? oldEdges[i] >>> 8 : Long.MAX_VALUE;
+            long newKey = j < newEdges.length ? newEdges[j] >>> 8 : Long.MAX_VALUE;
+            if (oldKey < newKey) {
+                removed.add(describe(names, oldEdges[i]) + " (" + typeNames(GraphFile.types(oldEdges[i])) + ")");
+                i++;
+            } else if (oldKey > newKey) {
+                added.add(describe(names, newEdges[j]) + " (" + typeNames(GraphFile.types(newEdges[j])) + ")");
+                j++;
+            } else {
+                if (GraphFile.types(oldEdges[i]) != GraphFile.types(newEdges[j])) {
+                    changed.add(describe(names, newEdges[j]) + " (" + typeNames(GraphFile.types(oldEdges[i])) + " -> " + typeNames(GraphFile.types(newEdges[j])) + ")");
+                }
+                i++;
+                j++;
+            }
+        }
+        section(result, "Added edges:", added);
+        section(result, "Removed edges:", removed);
+        section(result, "Changed edges:", changed);
+    }
+
+    private static String describe(String[] names, long edge) {
+        return names[GraphFile.from(edge)] + " -> " + names[GraphFile.to(edge)];
+    }
+
+    private static String typeNames(byte types) {
+        StringBuilder result = new StringBuilder();
+        for (EdgeType type : EdgeType.VALUES) {
+            if ((types & type.getMask()) != 0) {
+                if (result.length() > 0) {
+                    result.append('|');
+                }
+                result.append(type);
+            }
+        }
+        return result.toString();
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * Plugins in both orders which are not in a longest increasing run of
+     * their old positions taken in the new order, with both positions.
+     */
+    static List<String> moved(int[] oldOrder, int[] newOrder, int[] toOld, int oldCount, String[] names) {
+        // Old position of each old node index.
+        int[] positionOf = new int[oldCount];
+        Arrays.fill(positionOf, -1);
+        for (int p = 0; p < oldOrder.length; p++) {
+            positionOf[oldOrder[p]] = p;
+        }
+        // The common plugins in new order, with their old positions.
+        int[] sequence = new int[newOrder.length];
+        int[] newPosition = new int[newOrder.length];
+        int count = 0;
+        for (int p = 0; p < newOrder.length; p++) {
+            int old = toOld[newOrder[p]];
+            if (old >= 0 && positionOf[old] >= 0) {
+                sequence[count] = positionOf[old];
+                newPosition[count++] = p;
+            }
+        }
+        // Patience sorting, tails[k] is the element ending the best run of length k + 1.
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for (int k = 0; k < count; k++) {
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sequence[tails[mid]] < sequence[k]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[k] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = k;
+            if (lo == length) {
+                length++;
+            }
+        }
+        boolean[] kept = new boolean[count];
+        for (int k = length > 0 ? tails[length - 1] : -1; k >= 0; k = previous[k]) {
+            kept[k] = true;
+        }
+        List<String> result = new ArrayList<String>();
+        for (int k = 0; k < count; k++) {
+            if (!kept[k]) {
+                result.add(names[newOrder[newPosition[k]]] + " " + (sequence[k] + 1) + " -> " + (newPosition[k] + 1));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Draws the same graph as {@link DependencyGraph#writeDot(Writer)} as SVG,
+ * positioned by {@link LayeredLayout}, so no Graphviz is needed to look at
+ * it.
+ */
+final class SvgRenderer {
+
+    // Rough size of 12px sans-serif text, for sizing nodes.
+    private static final double CHAR_WIDTH = 7;
+    private static final double LINE_HEIGHT = 14;
+    private static final double PADDING = 8;
+
+    private SvgRenderer() {
+    }
+
+    static void write(Writer out, DependencyGraph graph) throws IOException {
+        AdjacencyStore.Csr csr = graph.getCsr();
+        boolean[] nodes = new boolean[csr.nodeCount];
+        for (String name : graph.getPluginNames()) {
+            nodes[graph.getNodeId(name)] = true;
+        }
+        nodes[graph.getWorldLoadId()] = true;
+        CriticalPath criticalPath = graph.hasEnableTimes() ? graph.getCriticalPath() : null;
+        Set<String> onPath = criticalPath != null ? new HashSet<String>(criticalPath.getPath()) : null;
+        // Labels are a name, and with enable times a line for time and slack.
+        String[][] labels = new String[nodes.length][];
+        double[] width = new double[nodes.length];
+        double[] height = new double[nodes.length];
+        for (int id = 0; id < nodes.length; id++) {
+            if (!nodes[id]) continue;
+            String name = graph.getNodeName(id);
+            if (criticalPath != null) {
+                Long slack = criticalPath.getSlack().get(name);
+                labels[id] = new String[] { name, CriticalPath.millis(graph.getEnableTime(id)) + (slack == null ? "" : ", slack " + CriticalPath.millis(slack)) };
+            } else {
+                labels[id] = new String[] { name };
+            }
+            int chars = 0;
+            for (String line : labels[id]) {
+                chars = Math.max(chars, line.length());
+            }
+            width[id] = chars * CHAR_WIDTH + 2 * PADDING;
+            height[id] = labels[id].length * LINE_HEIGHT + PADDING;
+            if (!graph.isPlugin(id)) {
+                width[id] = height[id] = Math.max(width[id], height[id]);
+            }
+        }
+        LayeredLayout layout = LayeredLayout.layout(csr, graph.getEnableSort(), nodes, width, height);
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"");
+        out.write(number(layout.getWidth()));
+        out.write("\" height=\"");
+        out.write(number(layout.getHeight()));
+        out.write("\" font-family=\"sans-serif\" font-size=\"12\">\n<defs>\n");
+        for (EdgeType et : EdgeType.VALUES) {
+            out.write("<marker id=\"");
+            out.write(DependencyGraph.getColor(et));
+            out.write("\" viewBox=\"0 0 10 10\" refX=\"10\" refY=\"5\" markerWidth=\"8\" markerHeight=\"8\" orient=\"auto\"><path d=\"M0,0L10,5L0,10z\" fill=\"");
+            out.write(DependencyGraph.getColor(et));
+            out.write("\"/></marker>\n");
+        }
+        out.write("</defs>\n<g fill=\"none\">\n");
+        for (int e = 0; e < csr.from.length; e++) {
+            double[] route = layout.getRoute(e);
+            if (route == null) continue;
+            int count = Integer.bitCount(csr.types[e] & 0xff);
+            int k = 0;
+            for (EdgeType et : EdgeType.VALUES) {
+                if ((csr.types[e] & et.getMask()) == 0) continue;
+                // Several types between the same two nodes are drawn side by side.
+                double shift = (k++ - (count - 1) / 2.0) * 3;
+                out.write("<path stroke=\"");
+                out.write(DependencyGraph.getColor(et));
+                out.write("\" marker-end=\"url(#");
+                out.write(DependencyGraph.getColor(et));
+                out.write(")\" d=\"M");
+                writePoint(out, route[0] + shift, route[1]);
+                for (int i = 2; i < route.length; i += 2) {
+                    if (route[i] == route[i - 2]) {
+                        out.write(" V");
+                        out.write(number(route[i + 1]));
+                        continue;
+                    }
+                    double middle = (route[i - 1] + route[i + 1]) / 2;
+                    out.write(" C");
+                    writePoint(out, route[i - 2] + shift, middle);
+                    out.write(' ');
+                    writePoint(out, route[i] + shift, middle);
+                    out.write(' ');
+                    writePoint(out, route[i] + shift, route[i + 1]);
+                }
+                out.write("\"/>\n");
+            }
+        }
+        out.write("</g>\n<g text-anchor=\"middle\">\n");
+        for (int id = 0; id < nodes.length; id++) {
+            if (!nodes[id]) continue;
+            double x = layout.getX(id);
+            double y = layout.getY(id);
+            if (!graph.isPlugin(id)) {
+                out.write("<circle cx=\"");
+                out.write(number(x));
+                out.write("\" cy=\"");
+                out.write(number(y));
+                out.write("\" r=\"");
+                out.write(number(width[id] / 2));
+            } else {
+                out.write("<rect x=\"");
+                out.write(number(x - width[id] / 2));
+                out.write("\" y=\"");
+                out.write(number(y - height[id] / 2));
+                out.write("\" width=\"");
+                out.write(number(width[id]));
+                out.write("\" height=\"");
+                out.write(number(height[id]));
+            }
+            out.write("\" fill=\"white\" stroke=\"black\"");
+            if (criticalPath != null && onPath.contains(graph.getNodeName(id))) {
+                out.write(" stroke-width=\"3\"");
+            }
+            out.write("/>\n");
+            String[] label = labels[id];
+            double top = y - (label.length - 1) * LINE_HEIGHT / 2;
+            for (int i = 0; i < label.length; i++) {
+                out.write("<text x=\"");
+                out.write(number(x));
+                out.write("\" y=\"");
+                out.write(number(top + i * LINE_HEIGHT));
+                out.write("\" dy=\"0.35em\">");
+                out.write(escapeXml(label[i]));
+                out.write("</text>\n");
+            }
+        }
+        out.write("</g>\n</svg>\n");
+    }
+
+    private static void writePoint(Writer out, double x, double y) throws IOException {
+        out.write(number(x));
+        out.write(',');
+        out.write(number(y));
+    }
+
+    /**
+     * Coordinates to a tenth of a pixel.
+     */
+    private static String number(double value) {
+        long tenths = Math.round(value * 10);
+        if (tenths % 10 == 0) {
+            return Long.toString(tenths / 10);
+        }
+        return Double.toString(tenths / 10.0);
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,332 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+
+/**
+ * Linear time topological sort which breaks cycles.
+ *
+ * Works on the {@link AdjacencyStore.Csr} form of the graph, edges carry a
+ * bitmask of {@link EdgeType}, of which only {@link EdgeType#DECLARED} count.
+ * Strongly connected components are found with Tarjan's algorithm; within
+ * each cyclic component the internal edges of the next type in the drop
+ * order are ignored and the component is split again. What remains is a DAG
+ * which is ordered by the length of the longest chain of edges below each
+ * node, then by id, so the order depends only on the graph and not on the
+ * order its edges were added in; {@link OrderIndex} keeps the same order up
+ * to date as the graph changes. Finally any ignored edge which the order
+ * happens to satisfy is restored, so only edges which really conflict with
+ * the order are reported.
+ */
+final class TopologicalSort {
+
+    private final int nodeCount;
+    private final int[] from;
+    private final int[] to;
+    private final byte[] active;
+    private final int[] outStart;
+    private final int[] inStart;
+    private final int[] inEdge;
+    // Scratch state for Tarjan.
+    private final int[] group;
+    private final int[] index;
+    private final int[] low;
+    private final boolean[] onStack;
+    private final int[] stack;
+    private final int[] callNode;
+    private final int[] callPos;
+    private int groupCount;
+    // Results.
+    private int[] order;
+    private int[] droppedEdge = new int[4];
+    private byte[] droppedType = new byte[4];
+    private int droppedCount;
+
+    private TopologicalSort(AdjacencyStore.Csr graph) {
+        this.nodeCount = graph.nodeCount;
+        this.from = graph.from;
+        this.to = graph.to;
+        this.active = new byte[graph.edgeCount];
+        for (int e = 0; e < graph.edgeCount; e++) {
+            // Only what Bukkit orders by.
+            active[e] = (byte) (graph.types[e] & EdgeType.DECLARED);
+        }
+        this.outStart = graph.outStart;
+        this.inStart = graph.inStart;
+        this.inEdge = graph.inEdge;
+        this.group = new int[nodeCount];
+        this.index = new int[nodeCount];
+        this.low = new int[nodeCount];
+        this.onStack = new boolean[nodeCount];
+        this.stack = new int[nodeCount];
+        this.callNode = new int[nodeCount];
+        this.callPos = new int[nodeCount];
+    }
+
+    /**
+     * Sort a graph, edges point from a node to something which must be
+     * ordered before it.
+     *
+     * @param graph the graph
+     * @param dropOrder types of edge to ignore, in order, when breaking cycles
+     * @return the result
+     */
+    static TopologicalSort sort(AdjacencyStore.Csr graph, EdgeType... dropOrder) {
+        TopologicalSort result = new TopologicalSort(graph);
+        result.breakCycles(dropOrder);
+        result.kahn();
+        result.restore();
+        return result;
+    }
+
+    /**
+     * The nodes in order, each after everything its edges point at.
+     */
+    int[] getOrder() {
+        return order;
+    }
+
+    /**
+     * Types of an edge which were kept, the edge being its index in the {@link AdjacencyStore.Csr}.
+     */
+    byte getActiveTypes(int edge) {
+        return active[edge];
+    }
+
+    int getDroppedCount() {
+        return droppedCount;
+    }
+
+    int getDroppedFrom(int i) {
+        return from[droppedEdge[i]];
+    }
+
+    int getDroppedTo(int i) {
+        return to[droppedEdge[i]];
+    }
+
+    EdgeType getDroppedType(int i) {
+        return EdgeType.forMask(droppedType[i]);
+    }
+
+    private void breakCycles(EdgeType[] dropOrder) {
+        if (nodeCount == 0) {
+            return;
+        }
+        int[] all = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            all[i] = i;
+        }
+        // Work list of (component, level) pairs, components are disjoint so
+        // the list never holds more than nodeCount entries.
+        int[][] work = new int[nodeCount + 1][];
+        int[] workLevel = new int[nodeCount + 1];
+        int workSize = 0;
+        work[workSize] = all;
+        workLevel[workSize++] = 0;
+        groupCount = 1;
+        while (workSize > 0) {
+            int[] members = work[--workSize];
+            int level = workLevel[workSize];
+            work[workSize] = null;
+            int[] sccEnd = tarjan(members);
+            int start = 0;
+            for (int end : sccEnd) {
+                if (end - start > 1 || hasSelfLoop(members[start])) {
+                    int[] scc = Arrays.copyOfRange(members, start, end);
+                    byte dropMask = level < dropOrder.length ? dropOrder[level].getMask() : (byte) -1;
+                    drop(scc, dropMask);
+                    if (level < dropOrder.length) {
+                        work[workSize] = scc;
+                        workLevel[workSize++] = level + 1;
+                    }
+                }
+                start = end;
+            }
+        }
+    }
+
+    private boolean hasSelfLoop(int v) {
+        for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+            if (active[e] != 0 && to[e] == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ignore edges internal to the component, which must all be in the same group.
+     */
+    private void drop(int[] scc, byte dropMask) {
+        int g = group[scc[0]];
+        for (int v : scc) {
+            for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+                byte hit = (byte) (active[e] & dropMask);
+                if (hit == 0 || group[to[e]] != g) {
+                    continue;
+                }
+                active[e] &= ~dropMask;
+                for (int bit = 1; bit < 0x100; bit <<= 1) {
+                    if ((hit & bit) != 0) {
+                        if (droppedCount == droppedEdge.length) {
+                            droppedEdge = Arrays.copyOf(droppedEdge, droppedCount * 2);
+                            droppedType = Arrays.copyOf(droppedType, droppedCount * 2);
+                        }
+                        droppedEdge[droppedCount] = e;
+                        droppedType[droppedCount++] = (byte) bit;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterative Tarjan over the subgraph induced by members (which must share
+     * a group) and active edges. Reorders members so each strongly connected
+     * component is contiguous, assigns each a fresh group, and returns the end
+     * offset of each component.
+     */
+    private int[] tarjan(int[] members) {
+        int g = group[members[0]];
+        for (int v : members) {
+            index[v] = -1;
+        }
+        int[] sccEnd = new int[members.length];
+        int[] sorted = new int[members.length];
+        int sccCount = 0;
+        int out = 0;
+        int counter = 0;
+        int stackSize = 0;
+        for (int root : members) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callNode[depth] = root;
+            callPos[depth++] = outStart[root];
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth > 0) {
+                int v = callNode[depth - 1];
+                int pos = callPos[depth - 1];
+                if (pos < outStart[v + 1]) {
+                    callPos[depth - 1] = pos + 1;
+                    int w = to[pos];
+                    if (active[pos] == 0 || group[w] != g) {
+                        continue;
+                    }
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callNode[depth] = w;
+                        callPos[depth++] = outStart[w];
+                    } else if (onStack[w] && index[w] < low[v]) {
+                        low[v] = index[w];
+                    }
+                } else {
+                    depth--;
+                    if (low[v] == index[v]) {
+                        int newGroup = groupCount++;
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            onStack[w] = false;
+                            group[w] = newGroup;
+                            sorted[out++] = w;
+                        } while (w != v);
+                        sccEnd[sccCount++] = out;
+                    }
+                    if (depth > 0) {
+                        int u = callNode[depth - 1];
+                        if (low[v] < low[u]) {
+                            low[u] = low[v];
+                        }
+                    }
+                }
+            }
+        }
+        System.arraycopy(sorted, 0, members, 0, out);
+        return Arrays.copyOf(sccEnd, sccCount);
+    }
+
+    private void restore() {
+        int[] position = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            position[order[i]] = i;
+        }
+        int kept = 0;
+        for (int i = 0; i < droppedCount; i++) {
+            int e = droppedEdge[i];
+            if (position[to[e]] < position[from[e]]) {
+                active[e] |= droppedType[i];
+            } else {
+                droppedEdge[kept] = e;
+                droppedType[kept++] = droppedType[i];
+            }
+        }
+        droppedCount = kept;
+    }
+
+    private void kahn() {
+        int[] remaining = new int[nodeCount];
+        for (int e = 0; e < active.length; e++) {
+            if (active[e] != 0) {
+                remaining[from[e]]++;
+            }
+        }
+        int[] queue = new int[nodeCount];
+        int[] level = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            if (remaining[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        int levels = 0;
+        while (head < tail) {
+            int v = queue[head++];
+            levels = Math.max(levels, level[v] + 1);
+            for (int i = inStart[v]; i < inStart[v + 1]; i++) {
+                int e = inEdge[i];
+                if (active[e] != 0) {
+                    level[from[e]] = Math.max(level[from[e]], level[v] + 1);
+                    if (--remaining[from[e]] == 0) {
+                        queue[tail++] = from[e];
+                    }
+                }
+            }
+        }
+        if (tail != nodeCount) {
+            throw new IllegalStateException("Cycle remained after cycle breaking");
+        }
+        order = byLevel(level, nodeCount, levels);
+    }
+
+    /**
+     * Node ids below count sorted by level then id, levels all being below
+     * levels; entries of level which are negative are left out.
+     */
+    static int[] byLevel(int[] level, int count, int levels) {
+        int[] start = new int[levels + 1];
+        int size = 0;
+        for (int v = 0; v < count; v++) {
+            if (level[v] >= 0) {
+                start[level[v] + 1]++;
+                size++;
+            }
+        }
+        for (int l = 0; l < levels; l++) {
+            start[l + 1] += start[l];
+        }
+        int[] result = new int[size];
+        for (int v = 0; v < count; v++) {
+            if (level[v] >= 0) {
+                result[start[level[v]]++] = v;
+            }
+        }
+        return result;
+    }
+}
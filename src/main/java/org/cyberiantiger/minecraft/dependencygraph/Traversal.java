@@ -0,0 +1,84 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+
+/**
+ * Breadth first traversals of an {@link AdjacencyStore.Csr} restricted to a
+ * set of edge types. Only reads the Csr, so safe to run concurrently.
+ */
+final class Traversal {
+
+    private Traversal() {
+    }
+
+    /**
+     * Ids of every node reachable from source, nearest first, not including
+     * source itself.
+     *
+     * @param parents follow edges backwards
+     */
+    static int[] reachable(AdjacencyStore.Csr csr, int source, byte mask, boolean parents) {
+        boolean[] seen = new boolean[csr.nodeCount];
+        int[] queue = new int[csr.nodeCount];
+        int head = 0;
+        int tail = 0;
+        seen[source] = true;
+        queue[tail++] = source;
+        while (head < tail) {
+            int v = queue[head++];
+            int start = parents ? csr.inStart[v] : csr.outStart[v];
+            int end = parents ? csr.inStart[v + 1] : csr.outStart[v + 1];
+            for (int i = start; i < end; i++) {
+                int e = parents ? csr.inEdge[i] : i;
+                int w = parents ? csr.from[e] : csr.to[e];
+                if ((csr.types[e] & mask) != 0 && !seen[w]) {
+                    seen[w] = true;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return Arrays.copyOfRange(queue, 1, tail);
+    }
+
+    /**
+     * Edge ids of a shortest path from one node to another, empty if from is
+     * to, or null if there is no path.
+     */
+    static int[] shortestPath(AdjacencyStore.Csr csr, int from, int to, byte mask) {
+        if (from == to) {
+            return new int[0];
+        }
+        int[] via = new int[csr.nodeCount];
+        Arrays.fill(via, -1);
+        int[] queue = new int[csr.nodeCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = from;
+        search:
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e = csr.outStart[v]; e < csr.outStart[v + 1]; e++) {
+                int w = csr.to[e];
+                if ((csr.types[e] & mask) != 0 && w != from && via[w] == -1) {
+                    via[w] = e;
+                    if (w == to) {
+                        break search;
+                    }
+                    queue[tail++] = w;
+                }
+            }
+        }
+        if (via[to] == -1) {
+            return null;
+        }
+        int length = 0;
+        for (int v = to; v != from; v = csr.from[via[v]]) {
+            length++;
+        }
+        int[] result = new int[length];
+        for (int v = to; v != from; v = csr.from[via[v]]) {
+            result[--length] = via[v];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,46 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.List;
+
+/**
+ * Plugins of one enable phase grouped into layers, where every plugin's
+ * dependencies, soft dependencies and load before constraints within the
+ * phase are satisfied by earlier layers, so each layer could in theory be
+ * enabled in parallel.
+ */
+final class Wavefronts {
+
+    private final List<List<String>> layers;
+    private final List<String> longestChain;
+
+    Wavefronts(List<List<String>> layers, List<String> longestChain) {
+        this.layers = layers;
+        this.longestChain = longestChain;
+    }
+
+    /**
+     * The layers, in enable order.
+     */
+    public List<List<String>> getLayers() {
+        return layers;
+    }
+
+    /**
+     * The size of the largest layer.
+     */
+    public int getMaxParallelism() {
+        int result = 0;
+        for (List<String> layer : layers) {
+            result = Math.max(result, layer.size());
+        }
+        return result;
+    }
+
+    /**
+     * One longest chain of plugins each of which has to wait for the previous
+     * one, in enable order. Its length is the number of layers.
+     */
+    public List<String> getLongestChain() {
+        return longestChain;
+    }
+}
@@ -0,0 +1,41 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Collections;
+import java.util.List;
+import org.bukkit.plugin.PluginLoadOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdjacencyStoreTest {
+
+    @Test
+    public void csrFollowsTypesAddedToAnExistingEdge() {
+        AdjacencyStore store = new AdjacencyStore();
+        int a = store.add(node("A"));
+        int b = store.add(node("B"));
+        store.addEdge(a, b, EdgeType.SOFT_DEPENDENCY.getMask());
+        assertEquals(EdgeType.SOFT_DEPENDENCY.getMask(), store.getCsr().types[0]);
+        store.addEdge(a, b, EdgeType.DEPENDENCY.getMask());
+        assertEquals((byte) (EdgeType.SOFT_DEPENDENCY.getMask() | EdgeType.DEPENDENCY.getMask()), store.getCsr().types[0]);
+    }
+
+    @Test
+    public void frozenCopyKeepsItsEdges() {
+        AdjacencyStore store = new AdjacencyStore();
+        int a = store.add(node("A"));
+        int b = store.add(node("B"));
+        store.addEdge(a, b, EdgeType.DEPENDENCY.getMask());
+        AdjacencyStore frozen = store.freeze();
+        store.addEdge(a, b, EdgeType.LOAD_BEFORE.getMask());
+        store.addEdge(b, a, EdgeType.DEPENDENCY.getMask());
+        assertEquals(EdgeType.DEPENDENCY.getMask(), frozen.getEdge(a, b));
+        assertEquals(0, frozen.getEdge(b, a));
+        assertEquals(1, frozen.getCsr().edgeCount);
+    }
+
+    private static DependencyGraph.Node node(String name) {
+        List<String> none = Collections.emptyList();
+        return new DependencyGraph.PluginNode(new PluginDescriptor(name, "1", PluginLoadOrder.STARTUP, none, none, none));
+    }
+}
@@ -0,0 +1,87 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClassScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Scanned from a jar of its own. Each type below is only named in one
+     * place in the class file.
+     */
+    static class Fixture {
+        // Only a string constant, which is no descriptor.
+        static final String NAME = "Lorg/example/fake/Thing;";
+        // Only in the field's signature.
+        List<org.hamcrest.Matcher<String>> matchers;
+
+        // Only in the method's descriptor.
+        void describe(org.junit.runner.Description description) {
+        }
+    }
+
+    @Test
+    public void onlyDescriptorsAndSignaturesAreParsed() throws IOException {
+        ClassScanner.Packages packages = ClassScanner.scan(fixtureJar());
+        assertTrue(packages.getDefined().containsKey("org/cyberiantiger/minecraft/dependencygraph"));
+        Set<String> referenced = packages.getReferenced();
+        assertTrue(referenced.toString(), referenced.contains("org/hamcrest"));
+        assertTrue(referenced.toString(), referenced.contains("org/junit/runner"));
+        assertFalse(referenced.toString(), referenced.contains("org/example/fake"));
+    }
+
+    @Test
+    public void cacheIsSavedOverTheFileItWasReadFrom() throws IOException {
+        File jar = fixtureJar();
+        File file = new File(folder.getRoot(), "scan.cache");
+        ClassScanCache cache = ClassScanCache.open(file);
+        ClassScanner.Packages scanned = cache.get(jar);
+        cache.save();
+        for (int i = 0; i < 2; i++) {
+            cache = ClassScanCache.open(file);
+            ClassScanner.Packages cached = cache.get(jar);
+            assertEquals(scanned.getDefined(), cached.getDefined());
+            assertEquals(scanned.getReferenced(), cached.getReferenced());
+            assertEquals("Class scan cache: 1 hits, 0 misses", cache.getStatistics());
+            cache.save();
+        }
+    }
+
+    private File fixtureJar() throws IOException {
+        File jar = folder.newFile("fixture.jar");
+        String entry = Fixture.class.getName().replace('.', '/') + ".class";
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(entry));
+            InputStream in = ClassScannerTest.class.getClassLoader().getResourceAsStream(entry);
+            try {
+                byte[] buffer = new byte[4096];
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,325 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.bukkit.plugin.PluginLoadOrder;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class CycleIndexTest {
+
+    private AdjacencyStore store;
+    private CycleIndex index;
+    private Map<String,Integer> ids;
+
+    @Before
+    public void setUp() {
+        store = new AdjacencyStore();
+        index = new CycleIndex(store, EdgeType.DECLARED);
+        // Built while empty, so everything after goes through the incremental paths.
+        index.build();
+        ids = new HashMap<String,Integer>();
+    }
+
+    @Test
+    public void edgeClosingALoopMergesComponents() {
+        add("A", "B");
+        add("B", "A");
+        add("C", "D");
+        add("D", "C");
+        assertEquals(cycles("A B", "C D"), cycles());
+        add("B", "C");
+        assertEquals(cycles("A B", "C D"), cycles());
+        add("D", "A");
+        assertEquals(cycles("A B C D"), cycles());
+        assertEquals(index.getComponent(id("A")), index.getComponent(id("D")));
+    }
+
+    @Test
+    public void edgeOfAnotherTypeDoesNotMerge() {
+        add("A", "B");
+        add("B", "A", EdgeType.INFERRED);
+        assertEquals(cycles(), cycles());
+        assertNotEquals(index.getComponent(id("A")), index.getComponent(id("B")));
+    }
+
+    @Test
+    public void removingAnEdgeSplitsOffWhatIsNoLongerOnTheCycle() {
+        add("A", "B");
+        add("B", "C");
+        add("C", "A");
+        add("C", "B");
+        add("A", "D");
+        add("D", "A");
+        assertEquals(cycles("A B C D"), cycles());
+        remove("C", "A");
+        assertEquals(cycles("A D", "B C"), cycles());
+        remove("C", "B");
+        assertEquals(cycles("A D"), cycles());
+        assertNotEquals(index.getComponent(id("B")), index.getComponent(id("C")));
+    }
+
+    @Test
+    public void severalRemovalsBeforeAReadAreAllSplit() {
+        add("A", "B");
+        add("B", "C");
+        add("C", "D");
+        add("D", "A");
+        add("B", "A");
+        add("D", "C");
+        assertEquals(cycles("A B C D"), cycles());
+        remove("B", "C");
+        remove("D", "A");
+        assertEquals(cycles("A B", "C D"), cycles());
+    }
+
+    @Test
+    public void edgeInsideAnUnsplitComponentFindsPathsOutsideIt() {
+        add("F", "A");
+        add("D", "F");
+        add("B", "F");
+        add("C", "B");
+        add("A", "C");
+        assertEquals(cycles("A B C F"), cycles());
+        remove("A", "C");
+        add("B", "D");
+        // A and B were only still together because the split had not run.
+        add("A", "B");
+        assertEquals(cycles("A B D F"), cycles());
+    }
+
+    @Test
+    public void edgeInsideAnUnsplitComponentMergesWithOthers() {
+        add("D", "F");
+        add("E", "B");
+        add("C", "E");
+        add("A", "C");
+        add("E", "F");
+        add("F", "A");
+        assertEquals(cycles("A C E F"), cycles());
+        remove("C", "E");
+        add("B", "D");
+        add("A", "E");
+        assertEquals(cycles("A B D E F"), cycles());
+    }
+
+    @Test
+    public void removingANodeBreaksItsCycles() {
+        add("A", "B");
+        add("B", "C");
+        add("C", "A");
+        add("A", "A");
+        assertEquals(cycles("A B C"), cycles());
+        remove("A", "B");
+        remove("C", "A");
+        remove("A", "A");
+        index.flush();
+        store.remove(id("A"));
+        index.nodeRemoved(id("A"));
+        assertEquals(cycles(), cycles());
+    }
+
+    @Test
+    public void selfLoopIsACycle() {
+        add("A", "A");
+        add("A", "B");
+        assertEquals(cycles("A"), cycles());
+        remove("A", "A");
+        assertEquals(cycles(), cycles());
+    }
+
+    /**
+     * Random edge changes against strongly connected components worked out
+     * from scratch, checking each feedback set leaves its component acyclic.
+     */
+    @Test
+    public void randomChangesMatchFullSearch() {
+        EdgeType[] types = { EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY, EdgeType.LOAD_BEFORE, EdgeType.INFERRED };
+        for (long seed = 0; seed < 50; seed++) {
+            setUp();
+            Random random = new Random(seed);
+            int n = 12;
+            for (int i = 0; i < n; i++) {
+                id(RandomPlugins.name(i));
+            }
+            for (int step = 0; step < 200; step++) {
+                String from = RandomPlugins.name(random.nextInt(n));
+                String to = RandomPlugins.name(random.nextInt(n));
+                if (random.nextInt(3) == 0) {
+                    remove(from, to);
+                } else {
+                    add(from, to, types[random.nextInt(types.length)]);
+                }
+                if (random.nextInt(4) != 0) {
+                    continue;
+                }
+                String message = "seed " + seed + " step " + step;
+                boolean[][] reach = reach(n, EdgeType.DECLARED);
+                index.getCyclicComponents();
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j < n; j++) {
+                        boolean same = i == j || reach[i][j] && reach[j][i];
+                        assertEquals(message, same, index.getComponent(i) == index.getComponent(j));
+                    }
+                }
+                assertEquals(message, components(reach, n), cycles());
+                for (Cycle cycle : index.getCycles()) {
+                    assertFalse(message + " " + cycle.getMembers(), hasCycle(n, cycle));
+                }
+            }
+        }
+    }
+
+    private int id(String name) {
+        Integer result = ids.get(name);
+        if (result == null) {
+            List<String> none = Collections.emptyList();
+            result = store.add(new DependencyGraph.PluginNode(new PluginDescriptor(name, "1", PluginLoadOrder.STARTUP, none, none, none)));
+            index.nodeAdded(result);
+            ids.put(name, result);
+        }
+        return result;
+    }
+
+    private void add(String from, String to) {
+        add(from, to, EdgeType.DEPENDENCY);
+    }
+
+    private void add(String from, String to, EdgeType type) {
+        int u = id(from);
+        int v = id(to);
+        byte added = (byte) (type.getMask() & ~store.getEdge(u, v));
+        if (added != 0) {
+            store.addEdge(u, v, type.getMask());
+            index.edgeAdded(u, v, added);
+        }
+    }
+
+    private void remove(String from, String to) {
+        int u = id(from);
+        int v = id(to);
+        byte removed = store.getEdge(u, v);
+        if (removed != 0) {
+            store.removeEdge(u, v);
+            index.edgeRemoved(u, v, removed);
+        }
+    }
+
+    private Set<Set<String>> cycles() {
+        Set<Set<String>> result = new HashSet<Set<String>>();
+        for (Cycle cycle : index.getCycles()) {
+            result.add(new HashSet<String>(cycle.getMembers()));
+        }
+        return result;
+    }
+
+    private static Set<Set<String>> cycles(String... members) {
+        Set<Set<String>> result = new HashSet<Set<String>>();
+        for (String cycle : members) {
+            Set<String> names = new HashSet<String>();
+            Collections.addAll(names, cycle.split(" "));
+            result.add(names);
+        }
+        return result;
+    }
+
+    /**
+     * Which of the first n ids reach which over edges of the mask, by
+     * Warshall's algorithm.
+     */
+    private boolean[][] reach(int n, byte mask) {
+        boolean[][] result = new boolean[n][n];
+        for (int i = 0; i < n; i++) {
+            int[] children = store.getChildIds(i);
+            byte[] types = store.getChildTypes(i);
+            for (int j = 0; j < store.getChildCount(i); j++) {
+                if ((types[j] & mask) != 0) {
+                    result[i][children[j]] = true;
+                }
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    result[i][j] |= result[i][k] && result[k][j];
+                }
+            }
+        }
+        return result;
+    }
+
+    private Set<Set<String>> components(boolean[][] reach, int n) {
+        Set<Set<String>> result = new HashSet<Set<String>>();
+        for (int i = 0; i < n; i++) {
+            if (!reach[i][i]) {
+                continue;
+            }
+            Set<String> component = new HashSet<String>();
+            for (int j = 0; j < n; j++) {
+                if (reach[i][j] && reach[j][i]) {
+                    component.add(RandomPlugins.name(j));
+                }
+            }
+            result.add(component);
+        }
+        return result;
+    }
+
+    /**
+     * Whether the cycle's members still have a cycle between them once its
+     * feedback types are ignored.
+     */
+    private boolean hasCycle(int n, Cycle cycle) {
+        Set<String> members = new HashSet<String>(cycle.getMembers());
+        Map<Integer,Byte> dropped = new HashMap<Integer,Byte>();
+        for (int i = 0; i < cycle.getFeedbackCount(); i++) {
+            int edge = id(cycle.getFeedbackFrom(i)) * n + id(cycle.getFeedbackTo(i));
+            Byte types = dropped.get(edge);
+            dropped.put(edge, (byte) ((types == null ? 0 : types) | cycle.getFeedbackType(i).getMask()));
+        }
+        // Kahn's algorithm over the members' remaining edges.
+        int[] children = new int[n];
+        List<List<Integer>> parents = new ArrayList<List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            parents.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < n; i++) {
+            if (!members.contains(RandomPlugins.name(i))) continue;
+            for (int j = 0; j < n; j++) {
+                if (!members.contains(RandomPlugins.name(j))) continue;
+                Byte types = dropped.get(i * n + j);
+                if ((store.getEdge(i, j) & EdgeType.DECLARED & ~(types == null ? 0 : types)) != 0) {
+                    children[i]++;
+                    parents.get(j).add(i);
+                }
+            }
+        }
+        List<Integer> ready = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            if (members.contains(RandomPlugins.name(i)) && children[i] == 0) {
+                ready.add(i);
+            }
+        }
+        int done = 0;
+        while (!ready.isEmpty()) {
+            int v = ready.remove(ready.size() - 1);
+            done++;
+            for (int u : parents.get(v)) {
+                if (--children[u] == 0) {
+                    ready.add(u);
+                }
+            }
+        }
+        return done != members.size();
+    }
+}
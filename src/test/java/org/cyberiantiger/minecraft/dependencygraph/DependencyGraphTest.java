@@ -0,0 +1,167 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bukkit.plugin.PluginLoadOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DependencyGraphTest {
+
+    @Test
+    public void bulkAddMatchesOneAtATime() {
+        for (long seed = 0; seed < 50; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 60);
+            List<PluginDescriptor> descriptors = plugins.descriptors(plugins.getRandom().nextInt(60));
+            DependencyGraph bulk = new DependencyGraph(descriptors);
+            DependencyGraph incremental = new DependencyGraph();
+            for (PluginDescriptor descriptor : descriptors) {
+                incremental.addPluginDescription(descriptor);
+            }
+            assertEquals("seed " + seed, adjacency(incremental), adjacency(bulk));
+            assertEquals("seed " + seed, GraphSnapshotTest.describe(incremental), GraphSnapshotTest.describe(bulk));
+        }
+    }
+
+    /**
+     * Startup A, B and C, D and E, where B and C depend on A and D on B and
+     * softly on C, then postworld F depending on D. Plugins are added in
+     * name order, so ids break ties in the same order.
+     */
+    private static DependencyGraph layered() {
+        List<String> none = Collections.emptyList();
+        return new DependencyGraph(Arrays.asList(
+                new PluginDescriptor("A", "1", PluginLoadOrder.STARTUP, none, none, none),
+                new PluginDescriptor("B", "1", PluginLoadOrder.STARTUP, Arrays.asList("A"), none, none),
+                new PluginDescriptor("C", "1", PluginLoadOrder.STARTUP, Arrays.asList("A"), none, none),
+                new PluginDescriptor("D", "1", PluginLoadOrder.STARTUP, Arrays.asList("B"), Arrays.asList("C"), none),
+                new PluginDescriptor("E", "1", PluginLoadOrder.STARTUP, none, none, none),
+                new PluginDescriptor("F", "1", PluginLoadOrder.POSTWORLD, Arrays.asList("D"), none, none)));
+    }
+
+    @Test
+    public void wavefrontsLayerEachPhase() {
+        Wavefronts[] wavefronts = layered().getEnableWavefronts();
+        assertEquals(Arrays.asList(Arrays.asList("A", "E"), Arrays.asList("B", "C"), Arrays.asList("D")), wavefronts[0].getLayers());
+        assertEquals(2, wavefronts[0].getMaxParallelism());
+        assertEquals(Arrays.asList("A", "B", "D"), wavefronts[0].getLongestChain());
+        // F's dependency is in the other phase, so it has no layer to wait for.
+        assertEquals(Arrays.asList(Arrays.asList("F")), wavefronts[1].getLayers());
+        assertEquals(Arrays.asList("F"), wavefronts[1].getLongestChain());
+    }
+
+    @Test
+    public void criticalPathAndSlack() {
+        DependencyGraph graph = layered();
+        Map<String,Long> times = new LinkedHashMap<String,Long>();
+        times.put("A", 10L);
+        times.put("B", 30L);
+        times.put("C", 50L);
+        times.put("D", 20L);
+        times.put("E", 100L);
+        times.put("F", 5L);
+        graph.setEnableTimes(new EnableTimes(times, 40L));
+        DependencyGraph snapshot = graph.getSnapshot().getGraph();
+        CriticalPath path = snapshot.getCriticalPath();
+        // E finishes at 100, the world loads until 140, then F takes 5.
+        assertEquals(Arrays.asList("E", DependencyGraph.WORLD_LOAD_NAME, "F"), path.getPath());
+        assertEquals(145L, path.getLength());
+        // The world has to start loading by 100, so D by 80, B and C by 80
+        // less their own time, and A by the earlier of those.
+        Map<String,Long> slack = new LinkedHashMap<String,Long>();
+        slack.put("A", 20L);
+        slack.put("E", 0L);
+        slack.put("B", 40L);
+        slack.put("C", 20L);
+        slack.put("D", 20L);
+        slack.put("F", 0L);
+        assertEquals(slack, path.getSlack());
+        assertEquals(times, new HashMap<String,Long>(path.getEnableTimes()));
+        // Made once for the version, and again once it changes.
+        assertSame(path, snapshot.getCriticalPath());
+        assertSame(snapshot.getEnableSort(), snapshot.getEnableSort());
+        times.put("E", 1L);
+        graph.setEnableTimes(new EnableTimes(times, 40L));
+        assertEquals(Arrays.asList("A", "C", "D", DependencyGraph.WORLD_LOAD_NAME, "F"), graph.getCriticalPath().getPath());
+    }
+
+    /**
+     * Radius and greedy picks against what each plugin takes down, worked
+     * out one plugin at a time from its dependents.
+     */
+    @Test
+    public void blastRadiusMatchesDependents() {
+        for (long seed = 0; seed < 50; seed++) {
+            DependencyGraph graph = new DependencyGraph(new RandomPlugins(seed, 40).descriptors(30));
+            BlastRadius blast = graph.getBlastRadius();
+            Map<String,Set<String>> disables = new HashMap<String,Set<String>>();
+            for (String name : blast.getRadius().keySet()) {
+                Set<String> down = new HashSet<String>(graph.getDependentPlugins(name));
+                down.add(name);
+                disables.put(name, down);
+            }
+            String message = "seed " + seed;
+            assertEquals(message, 30, disables.size());
+            for (Map.Entry<String,Integer> e : blast.getRadius().entrySet()) {
+                assertEquals(message + " " + e.getKey(), graph.getDependentPlugins(e.getKey()).size() + 1, (int) e.getValue());
+            }
+            Set<String> covered = new HashSet<String>();
+            for (Map.Entry<String,Integer> e : blast.getCritical().entrySet()) {
+                assertEquals(message + " " + e.getKey(), best(disables, covered), (int) e.getValue());
+                assertEquals(message + " " + e.getKey(), gain(disables.get(e.getKey()), covered), (int) e.getValue());
+                covered.addAll(disables.get(e.getKey()));
+            }
+            // Stopped only once no pick takes down more than itself.
+            assertTrue(message, best(disables, covered) <= 1);
+        }
+    }
+
+    private static int best(Map<String,Set<String>> disables, Set<String> covered) {
+        int result = 0;
+        for (Set<String> down : disables.values()) {
+            result = Math.max(result, gain(down, covered));
+        }
+        return result;
+    }
+
+    private static int gain(Set<String> down, Set<String> covered) {
+        int result = 0;
+        for (String name : down) {
+            if (!covered.contains(name)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Each node's edge arrays, in the order the store holds them.
+     */
+    private static String adjacency(DependencyGraph graph) {
+        AdjacencyStore store = graph.getSnapshot().getStore();
+        StringBuilder result = new StringBuilder();
+        for (int id = 0; id < store.getCapacity(); id++) {
+            if (store.getNode(id) == null) {
+                continue;
+            }
+            int children = store.getChildCount(id);
+            int parents = store.getParentCount(id);
+            result.append(id).append(' ').append(graph.getNodeName(id))
+                    .append(Arrays.toString(Arrays.copyOf(store.getChildIds(id), children)))
+                    .append(Arrays.toString(Arrays.copyOf(store.getChildTypes(id), children)))
+                    .append(Arrays.toString(Arrays.copyOf(store.getParentIds(id), parents)))
+                    .append(Arrays.toString(Arrays.copyOf(store.getParentTypes(id), parents)))
+                    .append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class GraphFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writtenFileReadsBackTheSame() throws IOException {
+        File file = new File(folder.getRoot(), "test.snapshot");
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 40);
+            GraphFile written = GraphFile.of(new DependencyGraph(plugins.descriptors(25)), seed);
+            // Each write replaces the file the last round read.
+            written.write(file);
+            GraphFile read = GraphFile.read(file);
+            String message = "seed " + seed;
+            assertEquals(message, written.getTime(), read.getTime());
+            assertArrayEquals(message, written.getNames(), read.getNames());
+            assertArrayEquals(message, written.getVersions(), read.getVersions());
+            assertArrayEquals(message, written.getEdges(), read.getEdges());
+            assertArrayEquals(message, written.getInitOrder(), read.getInitOrder());
+            assertArrayEquals(message, written.getStartupOrder(), read.getStartupOrder());
+            assertArrayEquals(message, written.getPostworldOrder(), read.getPostworldOrder());
+            assertEquals(message, Collections.<String>emptyList(), SnapshotDiff.diff(written, read));
+        }
+    }
+
+    @Test
+    public void corruptFileIsRejected() throws IOException {
+        File file = new File(folder.getRoot(), "test.snapshot");
+        List<PluginDescriptor> descriptors = new RandomPlugins(0, 40).descriptors(10);
+        GraphFile.of(new DependencyGraph(descriptors), 0L).write(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 1);
+        } finally {
+            raf.close();
+        }
+        try {
+            GraphFile.read(file);
+            fail("Read a corrupt snapshot");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphSnapshotTest {
+
+    private static final byte DEPENDS = (byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask());
+
+    @Test
+    public void oldSnapshotsDoNotChange() {
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 40);
+            DependencyGraph graph = new DependencyGraph(plugins.descriptors(15));
+            List<GraphSnapshot> snapshots = new ArrayList<GraphSnapshot>();
+            List<String> described = new ArrayList<String>();
+            for (int step = 0; step < 60; step++) {
+                change(graph, plugins);
+                GraphSnapshot snapshot = graph.getSnapshot();
+                snapshots.add(snapshot);
+                // Reading builds closure indexes, which the graph takes over on the next change.
+                described.add(describe(snapshot.getGraph()));
+            }
+            for (int i = 0; i < snapshots.size(); i++) {
+                assertEquals("seed " + seed + " version " + snapshots.get(i).getVersion(),
+                        described.get(i), describe(new DependencyGraph(snapshots.get(i))));
+            }
+        }
+    }
+
+    @Test
+    public void closuresMatchTraversal() {
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 40);
+            DependencyGraph graph = new DependencyGraph();
+            for (int step = 0; step < 100; step++) {
+                change(graph, plugins);
+                DependencyGraph snapshot = graph.getSnapshot().getGraph();
+                AdjacencyStore.Csr csr = snapshot.getCsr();
+                for (String name : snapshot.getPluginNames()) {
+                    int id = snapshot.getNodeId(name);
+                    assertEquals("seed " + seed + " step " + step + " " + name,
+                            names(snapshot, Traversal.reachable(csr, id, DEPENDS, false)),
+                            new HashSet<String>(snapshot.allDependencies(name)));
+                    assertEquals("seed " + seed + " step " + step + " " + name,
+                            names(snapshot, Traversal.reachable(csr, id, EdgeType.DEPENDENCY.getMask(), true)),
+                            new HashSet<String>(snapshot.getDependentPlugins(name)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Cycles are only worked out when a snapshot is read, so read some
+     * snapshots late, after the graph has moved on, and skip others, against
+     * a twin graph which has its cycles read after every change.
+     */
+    @Test
+    public void cyclesReadLateMatchCyclesReadAtOnce() {
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 30);
+            RandomPlugins twinPlugins = new RandomPlugins(seed, 30);
+            DependencyGraph graph = new DependencyGraph(plugins.descriptors(15));
+            DependencyGraph twin = new DependencyGraph(twinPlugins.descriptors(15));
+            Random random = new Random(seed);
+            List<GraphSnapshot> unread = new ArrayList<GraphSnapshot>();
+            List<String> expected = new ArrayList<String>();
+            for (int step = 0; step < 100; step++) {
+                change(graph, plugins);
+                change(twin, twinPlugins);
+                String cycles = cycles(twin.getSnapshot().getCycles());
+                if (random.nextInt(3) == 0) {
+                    unread.add(graph.getSnapshot());
+                    expected.add(cycles);
+                }
+                if (!unread.isEmpty() && random.nextInt(4) == 0) {
+                    int i = random.nextInt(unread.size());
+                    GraphSnapshot read = unread.remove(i);
+                    assertEquals("seed " + seed + " version " + read.getVersion(), expected.remove(i), cycles(read.getCycles()));
+                }
+            }
+        }
+    }
+
+    private static String cycles(List<Cycle> cycles) {
+        StringBuilder result = new StringBuilder();
+        for (Cycle cycle : cycles) {
+            result.append(cycle.getMembers());
+            for (int i = 0; i < cycle.getFeedbackCount(); i++) {
+                result.append(cycle.describeFeedback(i));
+            }
+        }
+        return result.toString();
+    }
+
+    private static void change(DependencyGraph graph, RandomPlugins plugins) {
+        String name = plugins.randomName();
+        if (graph.getPluginNames().contains(name)) {
+            graph.removePluginDescription(name);
+        } else {
+            graph.addPluginDescription(plugins.descriptor(name));
+        }
+    }
+
+    private static Set<String> names(DependencyGraph graph, int[] ids) {
+        Set<String> result = new HashSet<String>();
+        for (int id : ids) {
+            if (graph.isPlugin(id)) {
+                result.add(graph.getNodeName(id));
+            }
+        }
+        return result;
+    }
+
+    static String describe(DependencyGraph graph) {
+        StringBuilder result = new StringBuilder();
+        result.append(graph.toDot());
+        result.append(graph.getInitOrder());
+        result.append(Arrays.toString(graph.getEnableOrder()));
+        for (Cycle cycle : graph.getCycles()) {
+            result.append(cycle.getMembers());
+            for (int i = 0; i < cycle.getFeedbackCount(); i++) {
+                result.append(cycle.describeFeedback(i));
+            }
+        }
+        BlastRadius blastRadius = graph.getBlastRadius();
+        result.append(blastRadius.getRadius()).append(blastRadius.getCritical());
+        result.append(graph.getUndeclaredReferences());
+        List<String> missing = new ArrayList<String>(graph.getUnresolvedNames());
+        Collections.sort(missing);
+        for (String name : missing) {
+            List<String> requiredBy = new ArrayList<String>(graph.getUnresolvedReferences(name, EdgeType.DEPENDENCY));
+            Collections.sort(requiredBy);
+            result.append(name).append(requiredBy);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import com.google.common.base.Charsets;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GraphWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final class Counted implements GraphWriter.Output {
+        private String text;
+        private int renders;
+
+        @Override
+        public void write(Writer out) throws IOException {
+            renders++;
+            out.write(text);
+        }
+    }
+
+    @Test
+    public void unchangedOutputIsOnlyHashed() throws IOException {
+        File file = new File(folder.getRoot(), "out.txt");
+        Map<String,Long> hashes = new HashMap<String,Long>();
+        Counted output = new Counted();
+        output.text = "first";
+        GraphWriter.writeIfChanged(file, hashes, output);
+        assertEquals("first", read(file));
+
+        output.renders = 0;
+        long unchanged = Metrics.FILES_UNCHANGED.get();
+        GraphWriter.writeIfChanged(file, hashes, output);
+        assertEquals(1, output.renders);
+        assertEquals(unchanged + 1, Metrics.FILES_UNCHANGED.get());
+        // Rendered once, for the hash, and nothing left behind.
+        assertArrayEquals(new String[] { "out.txt" }, folder.getRoot().list());
+
+        output.text = "second";
+        GraphWriter.writeIfChanged(file, hashes, output);
+        assertEquals("second", read(file));
+        assertArrayEquals(new String[] { "out.txt" }, folder.getRoot().list());
+    }
+
+    @Test
+    public void everyWriteIsCounted() throws IOException {
+        Counted output = new Counted();
+        output.text = "text";
+        long files = Metrics.FILES_WRITTEN.get();
+        long bytes = Metrics.BYTES_WRITTEN.get();
+        GraphWriter.writeAtomically(new File(folder.getRoot(), "a.txt"), output);
+        GraphWriter.writeIfChanged(new File(folder.getRoot(), "b.txt"), new HashMap<String,Long>(), output);
+        assertEquals(files + 2, Metrics.FILES_WRITTEN.get());
+        assertEquals(bytes + 8, Metrics.BYTES_WRITTEN.get());
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,147 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.bukkit.plugin.PluginLoadOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrderIndexTest {
+
+    private static final EdgeType[] INIT = { EdgeType.WORLD_LOAD, EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY };
+    private static final EdgeType[] ENABLE = { EdgeType.LOAD_BEFORE, EdgeType.SOFT_DEPENDENCY, EdgeType.DEPENDENCY };
+
+    /**
+     * Random edge changes straight on a store, with nodes coming and going,
+     * against a full sort after every few changes.
+     */
+    @Test
+    public void edgeChangesMatchFullSort() {
+        for (long seed = 0; seed < 50; seed++) {
+            Random random = new Random(seed);
+            AdjacencyStore store = new AdjacencyStore();
+            CycleIndex cycles = new CycleIndex(store, EdgeType.DECLARED);
+            OrderIndex init = new OrderIndex(store, cycles, INIT);
+            OrderIndex enable = new OrderIndex(store, cycles, ENABLE);
+            // Built while empty, so everything after goes through the incremental paths.
+            init.getOrder();
+            enable.getOrder();
+            List<Integer> live = new ArrayList<Integer>();
+            for (int step = 0; step < 300; step++) {
+                int choice = random.nextInt(10);
+                if (live.size() < 2 || choice == 0) {
+                    int id = store.add(node(live.size()));
+                    cycles.nodeAdded(id);
+                    init.nodeAdded(id);
+                    enable.nodeAdded(id);
+                    live.add(id);
+                } else if (choice == 1) {
+                    int id = live.remove(random.nextInt(live.size()));
+                    while (store.getChildCount(id) > 0) {
+                        removeEdge(store, cycles, init, enable, id, store.getChildIds(id)[0]);
+                    }
+                    while (store.getParentCount(id) > 0) {
+                        removeEdge(store, cycles, init, enable, store.getParentIds(id)[0], id);
+                    }
+                    store.remove(id);
+                    cycles.nodeRemoved(id);
+                    init.nodeRemoved(id);
+                    enable.nodeRemoved(id);
+                } else {
+                    int from = live.get(random.nextInt(live.size()));
+                    int to = live.get(random.nextInt(live.size()));
+                    if (choice < 4) {
+                        removeEdge(store, cycles, init, enable, from, to);
+                    } else {
+                        byte mask = EdgeType.VALUES[random.nextInt(EdgeType.VALUES.length)].getMask();
+                        byte added = (byte) (mask & ~store.getEdge(from, to));
+                        if (added != 0) {
+                            store.addEdge(from, to, mask);
+                            cycles.edgeAdded(from, to, added);
+                            init.edgeAdded(from, to, added);
+                            enable.edgeAdded(from, to, added);
+                        }
+                    }
+                }
+                if (random.nextInt(4) == 0) {
+                    String message = "seed " + seed + " step " + step;
+                    assertEquals(message, sorted(store, INIT), live(store, init.getOrder()));
+                    assertEquals(message, sorted(store, ENABLE), live(store, enable.getOrder()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Plugins added to and removed from a graph, whose orders should be
+     * those of a full sort of its current edges.
+     */
+    @Test
+    public void pluginChangesMatchFullSort() {
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 40);
+            DependencyGraph graph = new DependencyGraph(plugins.descriptors(10));
+            for (int step = 0; step < 150; step++) {
+                String name = plugins.randomName();
+                if (graph.getPluginNames().contains(name)) {
+                    graph.removePluginDescription(name);
+                } else {
+                    graph.addPluginDescription(plugins.descriptor(name));
+                }
+                if (plugins.getRandom().nextInt(3) != 0) {
+                    continue;
+                }
+                String message = "seed " + seed + " step " + step;
+                AdjacencyStore.Csr csr = graph.getCsr();
+                assertEquals(message, names(graph, TopologicalSort.sort(csr, INIT).getOrder()), graph.getInitOrder());
+                List<String> enable = new ArrayList<String>();
+                for (List<String> phase : graph.getEnableOrder()) {
+                    enable.addAll(phase);
+                }
+                assertEquals(message, names(graph, TopologicalSort.sort(csr, ENABLE).getOrder()), enable);
+            }
+        }
+    }
+
+    private static void removeEdge(AdjacencyStore store, CycleIndex cycles, OrderIndex init, OrderIndex enable, int from, int to) {
+        byte removed = store.getEdge(from, to);
+        if (removed != 0) {
+            store.removeEdge(from, to);
+            cycles.edgeRemoved(from, to, removed);
+            init.edgeRemoved(from, to, removed);
+            enable.edgeRemoved(from, to, removed);
+        }
+    }
+
+    private static DependencyGraph.Node node(int i) {
+        List<String> none = Collections.emptyList();
+        return new DependencyGraph.PluginNode(new PluginDescriptor(RandomPlugins.name(i), "1", PluginLoadOrder.STARTUP, none, none, none));
+    }
+
+    private static List<Integer> sorted(AdjacencyStore store, EdgeType[] dropOrder) {
+        return live(store, TopologicalSort.sort(store.getCsr(), dropOrder).getOrder());
+    }
+
+    private static List<Integer> live(AdjacencyStore store, int[] order) {
+        List<Integer> result = new ArrayList<Integer>(order.length);
+        for (int id : order) {
+            if (store.getNode(id) != null) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> names(DependencyGraph graph, int[] order) {
+        List<String> result = new ArrayList<String>(order.length);
+        for (int id : order) {
+            if (graph.isPlugin(id)) {
+                result.add(graph.getNodeName(id));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QueryServiceTest {
+
+    private static final Set<EdgeType> DEPENDS = EnumSet.of(EdgeType.DEPENDENCY, EdgeType.SOFT_DEPENDENCY);
+
+    @Test
+    public void closuresAreInEnableOrderAndMatchBatches() {
+        for (long seed = 0; seed < 20; seed++) {
+            RandomPlugins plugins = new RandomPlugins(seed, 40);
+            DependencyGraph graph = new DependencyGraph(plugins.descriptors(30));
+            DependencyService service = new QueryService(graph).snapshot();
+            DependencyGraph snapshot = graph.getSnapshot().getGraph();
+            AdjacencyStore.Csr csr = snapshot.getCsr();
+            List<String> enableOrder = new ArrayList<String>();
+            for (List<String> phase : snapshot.getEnableOrder()) {
+                enableOrder.addAll(phase);
+            }
+            Set<String> names = snapshot.getPluginNames();
+            Map<String,List<String>> dependencies = service.getAllDependencies(names, DEPENDS);
+            Map<String,List<String>> dependents = service.getAllDependents(names, DEPENDS);
+            for (String name : names) {
+                int id = snapshot.getNodeId(name);
+                List<String> single = service.getAllDependencies(name, DEPENDS);
+                assertEquals(name, single, dependencies.get(name));
+                assertEquals(name, names(snapshot, Traversal.reachable(csr, id, mask(), false)), new HashSet<String>(single));
+                assertInOrder(enableOrder, single);
+                single = service.getAllDependents(name, DEPENDS);
+                assertEquals(name, single, dependents.get(name));
+                assertEquals(name, names(snapshot, Traversal.reachable(csr, id, mask(), true)), new HashSet<String>(single));
+                assertInOrder(enableOrder, single);
+            }
+        }
+    }
+
+    private static byte mask() {
+        return (byte) (EdgeType.DEPENDENCY.getMask() | EdgeType.SOFT_DEPENDENCY.getMask());
+    }
+
+    private static void assertInOrder(List<String> order, List<String> names) {
+        for (int i = 1; i < names.size(); i++) {
+            assertTrue(names.toString(), order.indexOf(names.get(i - 1)) < order.indexOf(names.get(i)));
+        }
+    }
+
+    private static Set<String> names(DependencyGraph graph, int[] ids) {
+        Set<String> result = new HashSet<String>();
+        for (int id : ids) {
+            if (graph.isPlugin(id)) {
+                result.add(graph.getNodeName(id));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,64 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.bukkit.plugin.PluginLoadOrder;
+
+/**
+ * Random plugin descriptors over a fixed pool of names, for tests. Any name
+ * in the pool can be referenced whether or not it is in the graph, so there
+ * are missing plugins, self references and cycles of every kind.
+ */
+final class RandomPlugins {
+
+    private final Random random;
+    private final int names;
+
+    RandomPlugins(long seed, int names) {
+        this.random = new Random(seed);
+        this.names = names;
+    }
+
+    Random getRandom() {
+        return random;
+    }
+
+    static String name(int i) {
+        return "P" + i;
+    }
+
+    String randomName() {
+        return name(random.nextInt(names));
+    }
+
+    PluginDescriptor descriptor(String name) {
+        return new PluginDescriptor(name, String.valueOf(random.nextInt(3)),
+                random.nextBoolean() ? PluginLoadOrder.STARTUP : PluginLoadOrder.POSTWORLD,
+                references(2), references(2), references(1), references(1));
+    }
+
+    /**
+     * Descriptors for count distinct names, in a random order.
+     */
+    List<PluginDescriptor> descriptors(int count) {
+        List<Integer> ids = new ArrayList<Integer>(names);
+        for (int i = 0; i < names; i++) {
+            ids.add(i);
+        }
+        List<PluginDescriptor> result = new ArrayList<PluginDescriptor>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(descriptor(name(ids.remove(random.nextInt(ids.size())))));
+        }
+        return result;
+    }
+
+    private List<String> references(int max) {
+        int count = random.nextInt(max + 1);
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(randomName());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package org.cyberiantiger.minecraft.dependencygraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.bukkit.plugin.PluginLoadOrder;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotDiffTest {
+
+    @Test
+    public void pluginMovingPastOthersIsTheOnlyOneMoved() {
+        int[] identity = { 0, 1, 2, 3, 4, 5 };
+        String[] names = { "A", "B", "C", "D", "E", "F" };
+        assertEquals(Arrays.asList("A 1 -> 5"),
+                SnapshotDiff.moved(identity, new int[] { 1, 2, 3, 4, 0, 5 }, identity, 6, names));
+        assertEquals(Arrays.asList("E 5 -> 1"),
+                SnapshotDiff.moved(identity, new int[] { 4, 0, 1, 2, 3, 5 }, identity, 6, names));
+        assertEquals(Collections.<String>emptyList(),
+                SnapshotDiff.moved(identity, identity, identity, 6, names));
+    }
+
+    /**
+     * Random orders, with plugins only in one of them, against the length of
+     * a longest increasing run worked out the slow way.
+     */
+    @Test
+    public void unmovedPluginsAreALongestRun() {
+        for (long seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            int n = 1 + random.nextInt(30);
+            String[] names = new String[n];
+            // New node j is old node j, unless it was added.
+            int[] toOld = new int[n];
+            List<Integer> oldNodes = new ArrayList<Integer>();
+            for (int j = 0; j < n; j++) {
+                names[j] = RandomPlugins.name(j);
+                toOld[j] = random.nextInt(6) == 0 ? -1 : j;
+                if (toOld[j] >= 0) {
+                    oldNodes.add(j);
+                }
+            }
+            // And some old nodes were removed.
+            for (int j = 0; j < n / 6; j++) {
+                oldNodes.add(n + j);
+            }
+            Collections.shuffle(oldNodes, random);
+            List<Integer> newNodes = new ArrayList<Integer>();
+            for (int j = 0; j < n; j++) {
+                newNodes.add(j);
+            }
+            Collections.shuffle(newNodes, random);
+            int[] oldOrder = toArray(oldNodes);
+            int[] newOrder = toArray(newNodes);
+            List<String> moved = SnapshotDiff.moved(oldOrder, newOrder, toOld, n + n / 6, names);
+
+            Set<String> movedNames = new HashSet<String>();
+            for (String line : moved) {
+                movedNames.add(line.substring(0, line.indexOf(' ')));
+            }
+            // Old positions of the common plugins in new order.
+            List<Integer> sequence = new ArrayList<Integer>();
+            List<Integer> kept = new ArrayList<Integer>();
+            for (int v : newOrder) {
+                if (toOld[v] >= 0) {
+                    int position = oldNodes.indexOf(toOld[v]);
+                    sequence.add(position);
+                    if (!movedNames.contains(names[v])) {
+                        kept.add(position);
+                    }
+                }
+            }
+            String message = "seed " + seed + " " + moved;
+            assertEquals(message, moved.size(), movedNames.size());
+            for (int k = 1; k < kept.size(); k++) {
+                assertTrue(message, kept.get(k - 1) < kept.get(k));
+            }
+            assertEquals(message, longestRun(sequence), kept.size());
+        }
+    }
+
+    @Test
+    public void changesAreReportedBySection() {
+        List<PluginDescriptor> before = Arrays.asList(
+                plugin("A", "1", none(), none()),
+                plugin("B", "1", Arrays.asList("A"), none()),
+                plugin("C", "1", none(), none()),
+                plugin("Gone", "1", none(), none()));
+        List<PluginDescriptor> after = Arrays.asList(
+                plugin("A", "2", none(), none()),
+                plugin("B", "1", Arrays.asList("A"), Arrays.asList("C")),
+                plugin("C", "1", none(), none()),
+                plugin("New", "1", none(), none()));
+        List<String> diff = SnapshotDiff.diff(GraphFile.of(new DependencyGraph(before), 0L), GraphFile.of(new DependencyGraph(after), 1L));
+        assertEquals(Arrays.asList(
+                "Added plugins:", "    New 1",
+                "Removed plugins:", "    Gone 1",
+                "Changed versions:", "    A 1 -> 2",
+                "Added edges:", "    B -> C (SOFT_DEPENDENCY)"), diff);
+    }
+
+    private static int longestRun(List<Integer> sequence) {
+        int[] best = new int[sequence.size()];
+        int result = 0;
+        for (int k = 0; k < best.length; k++) {
+            best[k] = 1;
+            for (int i = 0; i < k; i++) {
+                if (sequence.get(i) < sequence.get(k)) {
+                    best[k] = Math.max(best[k], best[i] + 1);
+                }
+            }
+            result = Math.max(result, best[k]);
+        }
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+    private static List<String> none() {
+        return Collections.emptyList();
+    }
+
+    private static PluginDescriptor plugin(String name, String version, List<String> depend, List<String> softDepend) {
+        return new PluginDescriptor(name, version, PluginLoadOrder.POSTWORLD, depend, softDepend, none());
+    }
+}